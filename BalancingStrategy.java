@@ -0,0 +1,53 @@
+import java.util.List;
+
+/**
+ * BalancingStrategy
+ * Chooses the server the proxy hands a query to. The strategy is chosen with the system property
+ * proxy.strategy: "zone" (default) prefers the server of the client's zone and falls back to its two
+ * neighbours, "p2c" compares two random servers by load and distance, "least" takes the server with
+ * the least outstanding queries, and "hash" sends every query to its home server on a consistent hash ring.
+ */
+public interface BalancingStrategy {
+
+    /**
+     * Returns the server for a query from a client in the given zone.
+     *
+     * @param requestedZone the zone of the client, 1 to 5
+     * @param servers the servers, the server of zone i at index i - 1
+     * @return the selected server
+     */
+    ServerNode select(int requestedZone, List<ServerNode> servers);
+
+    /**
+     * Returns the server for a query with the given routing hash from a client in the given zone.
+     * Strategies that do not route by query ignore the hash.
+     *
+     * @param requestedZone the zone of the client, 1 to 5
+     * @param keyHash the routing hash of the query, see Query.routingHash
+     * @param servers the servers, the server of zone i at index i - 1
+     * @return the selected server
+     */
+    default ServerNode select(int requestedZone, int keyHash, List<ServerNode> servers) {
+        return select(requestedZone, servers);
+    }
+
+    /**
+     * Creates the strategy given by proxy.strategy, configured from its system properties.
+     *
+     * @param serverCount the number of servers
+     * @param latencyModel gives the network delay between the zones
+     */
+    static BalancingStrategy fromSystemProperties(int serverCount, LatencyModel latencyModel) {
+        switch (System.getProperty("proxy.strategy", "zone")) {
+            case "p2c":
+                return new PowerOfTwoChoicesStrategy(latencyModel, Double.parseDouble(System.getProperty("proxy.zonePenalty", "0.2")));
+            case "least":
+                return new LeastOutstandingStrategy(latencyModel);
+            case "hash":
+                return new ConsistentHashStrategy(serverCount, Integer.getInteger("proxy.hashNeighbourhood", 3),
+                        Integer.getInteger("proxy.hashReplicas", 100), Double.parseDouble(System.getProperty("proxy.hashBalance", "0.25")));
+            default:
+                return new ZoneAffinityStrategy(Integer.getInteger("proxy.threshold", 18));
+        }
+    }
+}
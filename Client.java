@@ -1,83 +1,217 @@
 import java.util.Scanner;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 public class Client {
 
-    private Client() {}
-    private static final int MAX_CACHE_SIZE = 45; // Specify the maximum cache size
-    LinkedHashMap<String, Integer> cache = new LinkedHashMap<String, Integer>(MAX_CACHE_SIZE + 1, 1.0f, true) {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
-            return size() > MAX_CACHE_SIZE;
-        }
-    };
+    private Client() throws IOException {
+        resultWriter = new ResultWriter("naive_server.txt");
+    }
+    private static final boolean BATCH_MODE = "batch".equals(System.getProperty("client.mode")); // Send queries in batches per server
+    private static final int BATCH_SIZE = Integer.getInteger("client.batchSize", 20); // Number of queries in a batch
+    private static final String EXECUTOR_MODE = System.getProperty("client.executor", "pool"); // pool or virtual
+    private static final int THREADS = Integer.getInteger("client.threads", 64); // Worker threads in pool mode
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("client.maxInFlight", 256); // Queries queued or running at once
+    private static final int SUBMIT_INTERVAL_MS = Integer.getInteger("client.submitIntervalMs", 5); // Pause between queries, 0 for none
+    private static final int DEADLINE_MS = Integer.getInteger("client.deadlineMs", 5000); // Time a query may take on the servers, 0 for none
+    private static final int RETRIES = Integer.getInteger("client.retries", 2); // Other servers tried when a server is overloaded
+
+    private final ClientCache cache = ClientCache.fromSystemProperties(); // Cached and outstanding query results
+    private final ResultWriter resultWriter; // Writes the results to naive_server.txt in the background
+    private final LatencyRecorder latencyRecorder = new LatencyRecorder(); // Times per method and server
+    private final LatencyModel latencyModel = LatencyModel.fromSystemProperties(); // Simulated network delay between zones
+
+    private final ExecutorService workers = newWorkers(); // Runs the remote calls
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT); // Limits the queries queued or running
+    private final StubCache stubCache = new StubCache(); // Registry stubs of the proxy and the servers
+    private final Map<String, List<String[]>> batches = new HashMap<>(); // Queued queries per selected server in batch mode
 
     /**
-     * Goes through the input file and for each query creates a new thread that calls on invokeRemoteMethods
+     * Goes through the input file and for each query submits a task that calls on invokeRemoteMethods.
+     * In batch mode the queries are instead grouped per selected server and sent as batches.
+     * Waits until all queries have completed.
      * @param filename filename of the file with the queries
+     * @return false if the file does not exist, in which case no query is sent
      */
-    private void parseInputFile(String filename) {
-        List<Thread> threads = new ArrayList<>();
-        Scanner scanner = null;
+    private boolean parseInputFile(String filename) {
+        Scanner scanner;
         try {
             scanner = new Scanner(new File(filename));
         } catch (FileNotFoundException e) {
-            System.err.println("File not found");
+            System.err.println("File not found: " + filename);
+            return false;
         }
         while (scanner.hasNextLine()) {
             String line = scanner.nextLine();
-            boolean inCache = checkCache(line);
-            if (inCache) continue;
             String[] tokens = line.split(" ");
+            boolean inCache = checkCache(tokens);
+            if (inCache) continue;
+            if (BATCH_MODE) {
+                addToBatch(tokens);
+                continue;
+            }
             String methodName = tokens[0];
-            Runnable task = new Runnable() {
-                public void run() {
-                    invokeRemoteMethods(methodName, tokens);
+            submit(() -> invokeRemoteMethods(methodName, tokens));
+            if (SUBMIT_INTERVAL_MS > 0) {
+                try {
+                    Thread.sleep(SUBMIT_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
                 }
-            };
-            Thread thread = new Thread(task);
-            thread.start();
-            threads.add(thread);
-            try {
-                Thread.sleep(5);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
             }
         }
         scanner.close();
+        for (Map.Entry<String, List<String[]>> batch : batches.entrySet()) {
+            startBatch(batch.getKey(), batch.getValue());
+        }
+        batches.clear();
         
-        for (Thread thread : threads) {
-            try {
-                thread.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        workers.shutdown();
+        try {
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    /**
+     * Runs the task on the worker pool. Blocks while MAX_IN_FLIGHT tasks are queued or running,
+     * so the input file is never read further ahead than the servers can keep up with.
+     * @param task the task to run
+     */
+    private void submit(Runnable task) {
+        inFlight.acquireUninterruptibly();
+        try {
+            workers.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the worker pool given by client.executor: a fixed pool of THREADS threads, or
+     * a virtual thread per task.
+     */
+    private static ExecutorService newWorkers() {
+        if ("virtual".equals(EXECUTOR_MODE)) {
+            ExecutorService virtual = TaskExecutor.newVirtualThreadExecutor();
+            if (virtual != null) return virtual;
+        }
+        return Executors.newFixedThreadPool(THREADS);
+    }
+
+    /**
+     * Asks the proxy which server to use for the query and adds the query to the batch of that server.
+     * The batch is sent when it is full.
+     * @param tokens the tokens of the query line
+     */
+    private void addToBatch(String[] tokens) {
+        try {
+            int zone = Query.parseZone(tokens);
+            int keyHash = Query.parse(tokens).routingHash();
+            String serverName = stubCache.call("Proxy", (ProxyServerInterface proxy) -> proxy.getServer(zone, keyHash));
+            List<String[]> batch = batches.computeIfAbsent(serverName, name -> new ArrayList<>());
+            batch.add(tokens);
+            if (batch.size() >= BATCH_SIZE) startBatch(serverName, batches.remove(serverName));
+        } catch (Exception e) {
+            System.err.println("Client exception: " + e.toString());
+            e.printStackTrace();
+            cache.fail(String.join(" ", tokens), e);
+        }
+    }
+
+    /**
+     * Submits a task that sends the batch to the server
+     * @param serverName the registry name of the server
+     * @param batch the tokens of the queries in the batch
+     */
+    private void startBatch(String serverName, List<String[]> batch) {
+        submit(() -> invokeBatch(serverName, batch));
+    }
+
+    /**
+     * Invokes the executeBatch method on the server.
+     * Updates the cache and writes the result of every query to the output file.
+     * The turnaround time of each query is the turnaround time of the whole batch.
+     *
+     * @param serverName the registry name of the server
+     * @param batch the tokens of the queries in the batch
+     */
+    private void invokeBatch(String serverName, List<String[]> batch) {
+        try {
+            List<Query> queries = new ArrayList<>();
+            for (String[] args : batch) queries.add(Query.parse(args));
+            int batchZone = Query.parseZone(batch.get(0)); // The first query stands for the batch when it is retried
+            int batchKeyHash = queries.get(0).routingHash();
+            long startTime = System.nanoTime();
+            String batchServerName = serverName;
+            for (int attempt = 0; ; attempt++) {
+                int serverZone = Integer.parseInt(batchServerName.substring(6));
+                int farthestZone = serverZone; // The zone of the batch with the largest network delay to the server
+                for (String[] args : batch) {
+                    int zone = Query.parseZone(args);
+                    if (latencyModel.getNetworkNanos(zone, serverZone) > latencyModel.getNetworkNanos(farthestZone, serverZone)) farthestZone = zone;
+                }
+                long deadlineMs = remainingDeadlineMillis(startTime);
+                try {
+                    List<long[]> results = stubCache.call(batchServerName, (ServerInterface stub) -> stub.executeBatch(queries, deadlineMs));
+                    latencyModel.simulateNetwork(farthestZone, serverZone);
+                    long endTime = System.nanoTime();
+                    long turnAroundTime = endTime - startTime;
+                    for (int i = 0; i < batch.size(); i++) {
+                        complete(batch.get(i), results.get(i), turnAroundTime, batchServerName);
+                    }
+                    return;
+                } catch (ServerOverloadedException e) {
+                    latencyModel.simulateNetwork(farthestZone, serverZone);
+                    if (attempt >= RETRIES) throw e;
+                }
+                String rejectingServer = batchServerName;
+                batchServerName = stubCache.call("Proxy", (ProxyServerInterface proxy) -> proxy.getServer(batchZone, batchKeyHash, rejectingServer));
             }
+        } catch (Exception e) {
+            System.err.println("Client exception: " + e.toString());
+            e.printStackTrace();
+            for (String[] args : batch) cache.fail(String.join(" ", args), e);
         }
     }
 
     /**
-     * Checks if the query is in cache
+     * Checks if the query is in cache or has already been sent. If so, the result is written
+     * to the output file as soon as it is available, without sending the query again.
+     * Otherwise the query is reserved for the caller, who must send it.
      * 
-     * @param query the query to check
-     * @return true if the query is in cache, false otherwise
+     * @param query the tokens of the query to check
+     * @return true if the query is in cache or pending, false otherwise
      */
-    private boolean checkCache(String query) {
-        if (cache.containsKey(query)) {
-            int result = cache.get(query);
-            addResultToFile(result, query.split(" "), 0, 0, 0, "cache");
-            return true;
-        } else {
-            return false;
-        }
+    private boolean checkCache(String[] query) {
+        CompletableFuture<Long> result = cache.reserve(String.join(" ", query));
+        if (result == null) return false;
+        result.thenAccept(value -> addResultToFile(value, query, 0, Timing.of(value), "cache"));
+        return true;
     }
 
     /**
@@ -85,10 +219,10 @@ public class Client {
      * @param query the query to add to the cache
      * @param result the result of the query
      */
-    private synchronized void updateCache(String query, int result) {
-            cache.put(query, result);
+    private void updateCache(String query, long result) {
+        cache.complete(query, result);
     }
-    
+
     /**
      * Invokes the correct method with args based on the method name
      * @param methodName
@@ -107,6 +241,7 @@ public class Client {
                 break;
             default:
                 System.out.println("Invalid method name" + methodName);
+                cache.fail(String.join(" ", args), new IllegalArgumentException("Invalid method name " + methodName));
         }
     }
 
@@ -119,28 +254,16 @@ public class Client {
     private void invokeGetPopulationOfCountry(String[] args) {
         try {
             int argsLen = args.length;
-            int zone = (args[argsLen-1].charAt(5)) - '0';
-            Registry registry = LocateRegistry.getRegistry();
-            ProxyServerInterface proxyStub = (ProxyServerInterface) registry.lookup("Proxy");
-            String serverName = proxyStub.getServer(zone);
-
-            // connect to server
-            ServerInterface stub = (ServerInterface) registry.lookup(serverName);
-           
             int countryLen = argsLen - 2;
             String country = args[1];
             for (int i = 1; i < countryLen; i++) country = country + " " + args[i + 1] ;
-            long startTime = System.currentTimeMillis();
-            long[] result = stub.getPopulationofCountry(country);
-            if (zone != Integer.parseInt(serverName.substring(6))) simulateLatency(90);
-            long endTime = System.currentTimeMillis();
-            long turnAroundTime = endTime - startTime;
-            updateCache(String.join(" ", args), (int)result[0]);
-            addResultToFile((int)result[0], args, turnAroundTime, result[1], result[2], serverName);
-            System.out.println(String.join(" ", args) + ": " + result[0] + " --turnaroundtime: " + turnAroundTime + " executiontime: " + result[1] + " waitingtime: " + result[2]);
+            String countryName = country;
+            ServerReply reply = callServer(args, (stub, deadlineMs) -> stub.getPopulationofCountry(countryName, deadlineMs));
+            complete(args, reply.result(), reply.turnAroundTime(), reply.serverName());
         } catch (Exception e) {
             System.err.println("Client exception: " + e.toString());
             e.printStackTrace();
+            cache.fail(String.join(" ", args), e);
         }
     }
 
@@ -153,29 +276,18 @@ public class Client {
     private void invokeGetNumberOfCities(String[] args) {
         try {
             int argsLen = args.length;
-            int zone = (args[argsLen-1].charAt(5)) - '0';
-            Registry registry = LocateRegistry.getRegistry();
-            ProxyServerInterface proxyStub = (ProxyServerInterface) registry.lookup("Proxy");
-            String serverName = proxyStub.getServer(zone);
-
-            // connect to server
-            ServerInterface stub = (ServerInterface) registry.lookup(serverName);
-
             int countryLen = argsLen - 3;
             String country = args[1];
             for (int i = 1; i < countryLen; i++) country = country + " " + args[i + 1] ;
-            long startTime = System.currentTimeMillis();
-            long[] result = stub.getNumberofCities(country, Integer.parseInt(args[argsLen - 2]));
-            if (zone != Integer.parseInt(serverName.substring(6))) simulateLatency(90);
-            long endTime = System.currentTimeMillis();
-            long turnAroundTime = endTime - startTime;
-            updateCache(String.join(" ", args), (int)result[0]);
-            addResultToFile((int)result[0], args, turnAroundTime, result[1], result[2], serverName);
-            System.out.println(String.join(" ", args) + ": " + result[0] + " --turnaroundtime: " + turnAroundTime + " executiontime: " + result[1] + " waitingtime: " + result[2]);
+            String countryName = country;
+            int min = Integer.parseInt(args[argsLen - 2]);
+            ServerReply reply = callServer(args, (stub, deadlineMs) -> stub.getNumberofCities(countryName, min, deadlineMs));
+            complete(args, reply.result(), reply.turnAroundTime(), reply.serverName());
             
         } catch (Exception e) {
             System.err.println("Client exception: " + e.toString());
             e.printStackTrace();
+            cache.fail(String.join(" ", args), e);
         }
     }
 
@@ -187,141 +299,111 @@ public class Client {
      */
     private void invokeGetNumberOfCountries(String []args) {
         try {
-            int argsLen = args.length;
-            int zone = (args[argsLen-1].charAt(5)) - '0';
-            Registry registry = LocateRegistry.getRegistry();
-            ProxyServerInterface proxyStub = (ProxyServerInterface) registry.lookup("Proxy");
-            String serverName = proxyStub.getServer(zone);
-
-            // connect to server
-            ServerInterface stub = (ServerInterface) registry.lookup(serverName);
+            int citycount = Integer.parseInt(args[1]);
+            int minpopulation = Integer.parseInt(args[2]);
             
             if (args.length == 5) {
-                long startTime = System.currentTimeMillis();
-                long[] result = stub.getNumberofCountries(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
-                if (zone != Integer.parseInt(serverName.substring(6))) simulateLatency(90);
-                long endTime = System.currentTimeMillis();
-                long turnAroundTime = endTime - startTime;
-       
-                updateCache(String.join(" ", args), (int)result[0]);
-                addResultToFile((int)result[0], args, turnAroundTime, result[1], result[2], serverName);
-                System.out.println(String.join(" ", args) + ": " + result[0] + " --turnaroundtime: " + turnAroundTime + " executiontime: " + result[1] + " waitingtime: " + result[2]);
+                ServerReply reply = callServer(args, (stub, deadlineMs) -> stub.getNumberofCountries(citycount, minpopulation, deadlineMs));
+                complete(args, reply.result(), reply.turnAroundTime(), reply.serverName());
             } else {
-                long startTime = System.currentTimeMillis();
-                long[] result = stub.getNumberofCountries(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]));
-                if (zone != Integer.parseInt(serverName.substring(6))) simulateLatency(90);
-                long endTime = System.currentTimeMillis();
-                long turnAroundTime = endTime - startTime;
-                updateCache(String.join(" ", args), (int)result[0]);
-                addResultToFile((int)result[0], args, turnAroundTime, result[1], result[2], serverName);
-                System.out.println(String.join(" ", args) + ": " + result[0] + " --turnaroundtime: " + turnAroundTime + " executiontime: " + result[1] + " waitingtime: " + result[2]);
+                int maxpopulation = Integer.parseInt(args[3]);
+                ServerReply reply = callServer(args, (stub, deadlineMs) -> stub.getNumberofCountries(citycount, minpopulation, maxpopulation, deadlineMs));
+                complete(args, reply.result(), reply.turnAroundTime(), reply.serverName());
             }
         } catch (Exception e) {
             System.err.println("Client exception: " + e.toString());
             e.printStackTrace();
+            cache.fail(String.join(" ", args), e);
         }
     }
 
     /**
-     * Adds the result of the query to the output file
-     * @param result the result of the query
-     * @param query the query
-     * @param turnAroundTime the turn around time of the query
-     * @param executionTime the execution time of the query
-     * @param waitingTime the waiting time of the query
-     * @param zone the zone of the server that executed the query
+     * Asks the proxy which server to use for the query and invokes the call on that server, with the time
+     * left until the deadline of the query. If the server is overloaded the proxy is asked again, up to
+     * client.retries times, and the proxy chooses neither the rejecting server nor one that reported it is overloaded.
+     * The turnaround time runs from the first call to a server, so it includes the rejected calls.
+     *
+     * @param args the tokens of the query
+     * @param call invokes the query on the server with the given deadline
+     * @return the server that answered, its result and the turnaround time
+     * @throws ServerOverloadedException if the last server tried was overloaded as well
      */
-    private synchronized void addResultToFile(int result, String[] query, long turnAroundTime, long executionTime, long waitingTime, String zone) {
-        try {
-            FileWriter fw = new FileWriter("naive_server.txt", true);
-            fw.write(result + " " + String.join(" ", query) + " " + turnAroundTime + " " + executionTime + " " + waitingTime + " " + zone + "\n");
-            fw.close();
-        } catch (Exception e) {
-            System.err.println("Error writing to output file in addResultToFile : " + e.getMessage());
+    private ServerReply callServer(String[] args, QueryCall call) throws RemoteException, NotBoundException {
+        int zone = Query.parseZone(args);
+        int keyHash = Query.parse(args).routingHash();
+        long startTime = 0;
+        String rejectingServer = null;
+        for (int attempt = 0; ; attempt++) {
+            String excludedServer = rejectingServer;
+            String serverName = stubCache.call("Proxy", (ProxyServerInterface proxy) -> excludedServer == null
+                    ? proxy.getServer(zone, keyHash) : proxy.getServer(zone, keyHash, excludedServer));
+            if (attempt == 0) startTime = System.nanoTime();
+            long deadlineMs = remainingDeadlineMillis(startTime);
+            try {
+                long[] result = stubCache.call(serverName, (ServerInterface stub) -> call.invoke(stub, deadlineMs));
+                latencyModel.simulateNetwork(zone, Integer.parseInt(serverName.substring(6)));
+                return new ServerReply(serverName, result, System.nanoTime() - startTime);
+            } catch (ServerOverloadedException e) {
+                latencyModel.simulateNetwork(zone, Integer.parseInt(serverName.substring(6)));
+                if (attempt >= RETRIES) throw e;
+                rejectingServer = serverName;
+            }
         }
     }
 
     /**
-     * Calculate the average time taken to execute a method
+     * Returns the milliseconds left of the client.deadlineMs of a query sent at the given time,
+     * at least 1, or 0 if queries have no deadline.
      */
-    private void calculateAverageTime() {
-        
-        Scanner scanner = null;
-        try {
-            scanner = new Scanner(new File("naive_server.txt"));
-
-            long[][] getPopulationOfCountryAvgTimes = new long[3][2];
-            long[][] getNumberOfCitiesAvgTimes = new long[3][2];
-            long[][] getNumberOfCountriesAvgTimes = new long[3][2];
-            long[][] getNumberOfCountriesMaxAvgTimes = new long[3][2];
-
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                String[] tokens = line.split(" ");
-                int tokensLen = tokens.length;
-                
-                String methodName = tokens[1];
-                if (methodName.equals("getNumberofCountries") && (tokensLen > 10)) methodName = methodName + "Max";
-                
-                long turnAroundTime = Long.parseLong(tokens[tokensLen - 4]);
-                long executionTime = Long.parseLong(tokens[tokensLen - 3]);
-                long waitingTime = Long.parseLong(tokens[tokensLen - 2]);
-                
+    private static long remainingDeadlineMillis(long startTime) {
+        if (DEADLINE_MS <= 0) return 0;
+        return Math.max(1, DEADLINE_MS - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
 
-                switch(methodName) {
-                    case "getPopulationofCountry":
-                        updateTimes(getPopulationOfCountryAvgTimes, turnAroundTime, executionTime, waitingTime);
-                        break;
-                    case "getNumberofCities":
-                        updateTimes(getNumberOfCitiesAvgTimes, turnAroundTime, executionTime, waitingTime);
-                        break;
-                    case "getNumberofCountries":
-                        updateTimes(getNumberOfCountriesAvgTimes, turnAroundTime, executionTime, waitingTime);
-                        break;
-                    case "getNumberofCountriesMax":
-                        updateTimes(getNumberOfCountriesMaxAvgTimes, turnAroundTime, executionTime, waitingTime);
-                        break;
-                    default:
-                        System.out.println("Invalid method name: " + methodName);
-                }
-            }
-            try {
-                FileWriter fw = new FileWriter("naive_server.txt", true);
-                writeAverage(fw, "getPopulationofCountry", getPopulationOfCountryAvgTimes);
-                writeAverage(fw, "getNumberofCities", getNumberOfCitiesAvgTimes);
-                writeAverage(fw, "getNumberofCountries", getNumberOfCountriesAvgTimes);
-                writeAverage(fw, "getNumberofCountriesMax", getNumberOfCountriesMaxAvgTimes);
-                fw.close();
-            } catch (Exception e) {
-                    System.err.println("Error writing to output file in calculateAverageTime : " + e.getMessage());
-            }
-         } catch (FileNotFoundException e) {
-            System.err.println("File not found");
-        }
-        scanner.close();
+    /**
+     * Updates the cache, writes the result to the output file and prints it
+     * @param args the tokens of the query
+     * @param result the result and times returned by the server, see Timing
+     * @param turnAroundTime the turn around time of the query in nanoseconds
+     * @param serverName the registry name of the server that executed the query
+     */
+    private void complete(String[] args, long[] result, long turnAroundTime, String serverName) {
+        updateCache(String.join(" ", args), result[Timing.RESULT]);
+        addResultToFile(result[Timing.RESULT], args, turnAroundTime, result, serverName);
+        System.out.println(String.join(" ", args) + ": " + result[Timing.RESULT] + " --turnaroundtime: " + Timing.toMillis(turnAroundTime)
+                + " executiontime: " + Timing.toMillis(result[Timing.EXECUTION]) + " waitingtime: " + Timing.toMillis(result[Timing.WAITING])
+                + " rmioverhead: " + Timing.toMillis(Timing.rmiOverhead(turnAroundTime, result)));
     }
 
     /**
-     * Updates the time table with the given times
+     * Records the times of the query and queues the result for the output file.
+     * The times are written in milliseconds with three decimals: turnaround, execution, waiting,
+     * cache probe, compute, hand off and RMI overhead.
+     * @param result the result of the query
+     * @param query the query
+     * @param turnAroundTime the turn around time of the query in nanoseconds
+     * @param timing the times returned by the server, see Timing
+     * @param zone the zone of the server that executed the query
      */
-    void updateTimes(long[][] timeTable, long turnAroundTime, long executionTime, long waitingTime) {
-        timeTable[0][0]+=turnAroundTime; timeTable[0][1]++;
-        timeTable[1][0]+=executionTime; timeTable[1][1]++;
-        timeTable[2][0]+=waitingTime; timeTable[2][1]++;
+    private void addResultToFile(long result, String[] query, long turnAroundTime, long[] timing, String zone) {
+        String methodName = query[0];
+        if (methodName.equals("getNumberofCountries") && query.length == 6) methodName = methodName + "Max";
+        long rmiOverhead = Timing.rmiOverhead(turnAroundTime, timing);
+        latencyRecorder.record(methodName, zone, turnAroundTime, timing, rmiOverhead);
+        resultWriter.write(result + " " + String.join(" ", query) + " " + Timing.toMillis(turnAroundTime)
+                + " " + Timing.toMillis(timing[Timing.EXECUTION]) + " " + Timing.toMillis(timing[Timing.WAITING])
+                + " " + Timing.toMillis(timing[Timing.CACHE_PROBE]) + " " + Timing.toMillis(timing[Timing.COMPUTE])
+                + " " + Timing.toMillis(timing[Timing.HAND_OFF]) + " " + Timing.toMillis(rmiOverhead) + " " + zone);
     }
 
     /**
-     * Writes the average time to the output file
-     * @param fw
-     * @param methodName
-     * @param timeTable
-     * @throws IOException
+     * Writes the average and percentile times per method and per server to the output file.
+     * The times are recorded as the results arrive, so the output file is not read again.
      */
-    void writeAverage(FileWriter fw, String methodName, long[][] timeTable) throws IOException {
-        long turnAroundAvg = timeTable[0][0] / timeTable[0][1];
-        long executionAvg = timeTable[1][0] / timeTable[1][1];
-        long waitingAvg = timeTable[2][0] / timeTable[2][1];
-        fw.write(methodName + " turnaround time:" + turnAroundAvg + "ms, execution time:" + executionAvg  + "ms, waiting time:" + waitingAvg + "ms\n");
+    private void writeStatistics() {
+        for (String line : latencyRecorder.report("getPopulationofCountry", "getNumberofCities", "getNumberofCountries", "getNumberofCountriesMax")) {
+            resultWriter.write(line);
+        }
     }
 
     /**
@@ -333,16 +415,13 @@ public class Client {
     void writeCacheToFile() {
         try {
             FileWriter fw = new FileWriter("server_cache.txt");
-            Registry registry = LocateRegistry.getRegistry();
-            ProxyServerInterface proxyStub = (ProxyServerInterface) registry.lookup("Proxy");
-
-            List<LinkedHashMap<String, Integer>> serverCaches = proxyStub.getServerCaches();
+            List<LinkedHashMap<String, Long>> serverCaches = stubCache.call("Proxy", (ProxyServerInterface proxy) -> proxy.getServerCaches());
             
             
             for (int i = 0; i < serverCaches.size(); i++) {
-                LinkedHashMap<String, Integer> serverCache = serverCaches.get(i);
+                LinkedHashMap<String, Long> serverCache = serverCaches.get(i);
                 fw.write("----- SERVER " + (i+1) + "-----\n");
-                for (Map.Entry<String, Integer> entry : serverCache.entrySet()) {
+                for (Map.Entry<String, Long> entry : serverCache.entrySet()) {
                     fw.write(entry.getKey() + " " + entry.getValue() + "\n");
                 }
             }
@@ -354,7 +433,7 @@ public class Client {
         try {
             FileWriter fw = new FileWriter("client_cache.txt");
             fw.write("----- CLIENT CACHE -----\n");
-            for (Map.Entry<String, Integer> entry : cache.entrySet()) {
+            for (Map.Entry<String, Long> entry : cache.snapshot().entrySet()) {
                 fw.write(entry.getKey() + " " + entry.getValue() + "\n");
             }
             fw.close();
@@ -364,27 +443,44 @@ public class Client {
     }
 
     /**
-     * Simulates latency
-     * @param millis
+     * Creates the outputfile
+     * @param args
      */
-    private void simulateLatency(int millis) {
+    public static void main(String[] args) {
+        Client client;
         try {
-            Thread.sleep(millis);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+            client = new Client();
+        } catch (IOException e) {
+            System.err.println("Error creating output file : " + e.getMessage());
+            return;
         }
+        if (!client.parseInputFile(args[0])) {
+            System.exit(1); // The exported proxy and servers would keep the JVM running
+        }
+        client.writeStatistics();
+        try {
+            client.resultWriter.close();
+        } catch (IOException e) {
+            System.err.println("Error writing to output file : " + e.getMessage());
+        }
+        client.writeCacheToFile();
     }
 
     /**
-     * Creates the outputfile
-     * @param args
+     * A query method of the server, called with the deadline of the query in milliseconds.
      */
-    public static void main(String[] args) {
-        Client client = new Client();
-        File file = new File("naive_server.txt");
-        if (file.exists()) file.delete();
-        client.parseInputFile(args[0]);
-        client.calculateAverageTime();
-        client.writeCacheToFile();
+    @FunctionalInterface
+    private interface QueryCall {
+        long[] invoke(ServerInterface stub, long deadlineMs) throws RemoteException;
+    }
+
+    /**
+     * The answer of a server to a query.
+     *
+     * @param serverName the registry name of the server that answered
+     * @param result the result and times returned by the server, see Timing
+     * @param turnAroundTime the turnaround time of the query in nanoseconds
+     */
+    private record ServerReply(String serverName, long[] result, long turnAroundTime) {
     }
-}
\ No newline at end of file
+}
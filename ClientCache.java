@@ -0,0 +1,105 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ClientCache
+ * Thread safe LRU cache of query results on the client, which also keeps track of the queries that
+ * have been sent but not answered yet. A repeated query attaches to the outstanding result instead
+ * of being sent to a server a second time.
+ *
+ * The maximum size is read from the system property client.cacheSize (default 45).
+ */
+public class ClientCache {
+
+    private final int maxSize;
+    private final LinkedHashMap<String, Long> results;
+    private final ConcurrentHashMap<String, CompletableFuture<Long>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a cache that holds at most maxSize results.
+     *
+     * @param maxSize the maximum number of cached results
+     */
+    public ClientCache(int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        this.results = new LinkedHashMap<String, Long>(this.maxSize + 1, 1.0f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > ClientCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Creates a cache with the size given by the client.cacheSize system property.
+     */
+    public static ClientCache fromSystemProperties() {
+        return new ClientCache(Integer.getInteger("client.cacheSize", 45));
+    }
+
+    /**
+     * Reserves the query for the caller. Returns null if the query is neither cached nor pending,
+     * in which case the caller must send it and then call complete or fail. Otherwise returns the
+     * cached result or the result of the query already in flight.
+     *
+     * @param query the query line
+     * @return null if the caller owns the query, else the future result
+     */
+    public CompletableFuture<Long> reserve(String query) {
+        Long cached = get(query);
+        if (cached != null) return CompletableFuture.completedFuture(cached);
+        CompletableFuture<Long> reserved = new CompletableFuture<>();
+        CompletableFuture<Long> outstanding = pending.putIfAbsent(query, reserved);
+        if (outstanding != null) return outstanding;
+        // The query may have completed between the lookup and the reservation.
+        cached = get(query);
+        if (cached != null) {
+            pending.remove(query, reserved);
+            reserved.complete(cached);
+            return reserved;
+        }
+        return null;
+    }
+
+    /**
+     * Caches the result and hands it to every caller waiting for the query.
+     *
+     * @param query the query line
+     * @param result the result of the query
+     */
+    public void complete(String query, long result) {
+        synchronized (results) {
+            results.put(query, result);
+        }
+        CompletableFuture<Long> outstanding = pending.remove(query);
+        if (outstanding != null) outstanding.complete(result);
+    }
+
+    /**
+     * Releases the reservation of a query that failed. Waiting callers get the exception.
+     *
+     * @param query the query line
+     * @param cause why the query failed
+     */
+    public void fail(String query, Throwable cause) {
+        CompletableFuture<Long> outstanding = pending.remove(query);
+        if (outstanding != null) outstanding.completeExceptionally(cause);
+    }
+
+    /**
+     * Returns a copy of the cached results, least recently used first.
+     */
+    public LinkedHashMap<String, Long> snapshot() {
+        synchronized (results) {
+            return new LinkedHashMap<>(results);
+        }
+    }
+
+    private Long get(String query) {
+        synchronized (results) {
+            return results.get(query);
+        }
+    }
+}
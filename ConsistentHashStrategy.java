@@ -0,0 +1,85 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ConsistentHashStrategy
+ * Routes every query to a home server on a consistent hash ring, so a repeated query meets its cached
+ * result instead of missing on another server. Every server has a number of virtual nodes on the ring,
+ * and the home of a query is the first server clockwise from its routing hash that lies in the client's
+ * zone neighbourhood: the zone's own server and the next servers in zone order.
+ *
+ * Loads are bounded: a server is skipped while its load is above (1 + balance) times the average load,
+ * so a hot key range cannot pile up on one server. If every server in the neighbourhood is above the
+ * bound, the least loaded of them is used. Queries without a routing hash go to the least loaded
+ * server of the neighbourhood.
+ */
+public class ConsistentHashStrategy implements BalancingStrategy {
+
+    private final int neighbourhood;
+    private final double balance;
+    private final int[] points; // Sorted positions of the virtual nodes on the ring
+    private final int[] owners; // Index of the server owning each point
+
+    /**
+     * Creates the strategy. The ring only depends on the number of servers and replicas, so every
+     * proxy builds the same ring.
+     *
+     * @param serverCount the number of servers
+     * @param neighbourhood the number of servers, counted from the client's zone, a query may go to
+     * @param replicas the number of virtual nodes per server
+     * @param balance how far above the average load a server may go before it is skipped
+     */
+    public ConsistentHashStrategy(int serverCount, int neighbourhood, int replicas, double balance) {
+        this.neighbourhood = Math.max(1, Math.min(serverCount, neighbourhood));
+        this.balance = balance;
+        long[] nodes = new long[serverCount * Math.max(1, replicas)];
+        for (int i = 0; i < nodes.length; i++) {
+            int server = i % serverCount;
+            int point = Query.mix(("server" + (server + 1) + "#" + i / serverCount).hashCode());
+            nodes[i] = ((long) point << 32) | server;
+        }
+        Arrays.sort(nodes);
+        points = new int[nodes.length];
+        owners = new int[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            points[i] = (int) (nodes[i] >> 32);
+            owners[i] = (int) nodes[i];
+        }
+    }
+
+    @Override
+    public ServerNode select(int requestedZone, List<ServerNode> servers) {
+        return leastLoaded(requestedZone, servers);
+    }
+
+    @Override
+    public ServerNode select(int requestedZone, int keyHash, List<ServerNode> servers) {
+        int serverCount = servers.size();
+        long totalLoad = 0;
+        for (int i = 0; i < serverCount; i++) totalLoad += Math.max(0, servers.get(i).getLoad());
+        double bound = Math.ceil((1 + balance) * (totalLoad + 1) / serverCount);
+
+        int start = Arrays.binarySearch(points, keyHash);
+        if (start < 0) start = -start - 1;
+        for (int i = 0; i < points.length; i++) {
+            int owner = owners[(start + i) % points.length];
+            if (!inNeighbourhood(requestedZone, owner + 1, serverCount)) continue;
+            ServerNode server = servers.get(owner);
+            if (server.getLoad() + 1 <= bound) return server;
+        }
+        return leastLoaded(requestedZone, servers);
+    }
+
+    private boolean inNeighbourhood(int requestedZone, int zone, int serverCount) {
+        return Math.floorMod(zone - requestedZone, serverCount) < neighbourhood;
+    }
+
+    private ServerNode leastLoaded(int requestedZone, List<ServerNode> servers) {
+        ServerNode selected = null;
+        for (int i = 0; i < neighbourhood; i++) {
+            ServerNode server = servers.get((requestedZone - 1 + i) % servers.size());
+            if (selected == null || server.getLoad() < selected.getLoad()) selected = server;
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,302 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * DataSet
+ * In-memory columnar copy of the city data set. The file is parsed once and every city is
+ * kept as a country id and a population in primitive arrays, so queries never go back to disk.
+ * Country names are dictionary encoded: the id of a country is its index in countryNames.
+ *
+ * The file is memory mapped and parsed from the bytes, without a String per line or field. It is split
+ * at line boundaries into chunks that are parsed in parallel, each into its own columns and its own
+ * dictionary of country names. The chunks are then merged in file order, so the countries get their ids
+ * in the order they first appear in the file, as if the file was read line by line.
+ */
+public class DataSet {
+
+    private static final long MIN_CHUNK_BYTES = 1 << 20;
+    private static final long MAX_CHUNK_BYTES = 1 << 30; // A mapped buffer holds at most 2 GB
+
+    private final int[] countryIds;
+    private final int[] populations;
+    private final String[] countryNames;
+    private final Map<String, Integer> countryIndex;
+    private final long[] countryPopulations; // Summed as longs, the total of a large country does not fit in an int
+
+    private DataSet(int[] countryIds, int[] populations, String[] countryNames, Map<String, Integer> countryIndex) {
+        this.countryIds = countryIds;
+        this.populations = populations;
+        this.countryNames = countryNames;
+        this.countryIndex = countryIndex;
+        this.countryPopulations = new long[countryNames.length];
+        for (int i = 0; i < countryIds.length; i++) {
+            countryPopulations[countryIds[i]] += populations[i];
+        }
+    }
+
+    /**
+     * Reads the semicolon separated data set file and builds the columns. The fourth field of a line
+     * is the country name and the fifth the population. The first line is the header and is skipped.
+     *
+     * @param fileName the data set file
+     * @return the loaded data set
+     * @throws IOException if the file cannot be read
+     * @throws NumberFormatException if a population is not an int
+     */
+    public static DataSet load(String fileName) throws IOException {
+        List<MappedByteBuffer> buffers = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            long chunkCount = Math.max(Runtime.getRuntime().availableProcessors() * 2L, (fileSize + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+            long chunkSize = Math.min(MAX_CHUNK_BYTES, Math.max(MIN_CHUNK_BYTES, (fileSize + chunkCount - 1) / chunkCount));
+            long start = nextLine(channel, 0); // Skips the header
+            while (start < fileSize) {
+                long end = start + chunkSize >= fileSize ? fileSize : nextLine(channel, start + chunkSize);
+                buffers.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+                start = end;
+            }
+        }
+
+        // The mapping stays valid after the channel is closed
+        List<Chunk> chunks = IntStream.range(0, buffers.size()).parallel().mapToObj(i -> Chunk.parse(buffers.get(i))).toList();
+
+        int size = 0;
+        for (Chunk chunk : chunks) size += chunk.size;
+        int[] countryIds = new int[size];
+        int[] populations = new int[size];
+        List<String> countryNames = new ArrayList<>();
+        Map<String, Integer> countryIndex = new HashMap<>();
+        int offset = 0;
+        for (Chunk chunk : chunks) {
+            int[] globalIds = new int[chunk.countryCount];
+            for (int i = 0; i < chunk.countryCount; i++) {
+                String country = new String(chunk.countryNames[i], StandardCharsets.UTF_8);
+                Integer countryId = countryIndex.get(country);
+                if (countryId == null) {
+                    countryId = countryNames.size();
+                    countryNames.add(country);
+                    countryIndex.put(country, countryId);
+                }
+                globalIds[i] = countryId;
+            }
+            for (int i = 0; i < chunk.size; i++) countryIds[offset + i] = globalIds[chunk.countryIds[i]];
+            System.arraycopy(chunk.populations, 0, populations, offset, chunk.size);
+            offset += chunk.size;
+        }
+        return new DataSet(countryIds, populations, countryNames.toArray(new String[0]), countryIndex);
+    }
+
+    /*
+     * Returns the position after the first line break at or after the given position, or the file size.
+     */
+    private static long nextLine(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) return channel.size();
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') return position + i + 1;
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Returns the id of the given country, or -1 if the country is not in the data set.
+     */
+    public int getCountryId(String countryName) {
+        Integer countryId = countryIndex.get(countryName);
+        return countryId == null ? -1 : countryId;
+    }
+
+    /**
+     * Returns the name of the country with the given id.
+     */
+    public String getCountryName(int countryId) {
+        return countryNames[countryId];
+    }
+
+    /**
+     * Returns the number of distinct countries in the data set.
+     */
+    public int getCountryCount() {
+        return countryNames.length;
+    }
+
+    /**
+     * Returns the number of cities in the data set.
+     */
+    public int size() {
+        return countryIds.length;
+    }
+
+    /**
+     * Returns the country id column. The array is shared and must not be modified.
+     */
+    public int[] getCountryIds() {
+        return countryIds;
+    }
+
+    /**
+     * Returns the population column. The array is shared and must not be modified.
+     */
+    public int[] getPopulations() {
+        return populations;
+    }
+
+    /**
+     * Returns the summed population of all cities in the given country, or 0 if the id is -1.
+     */
+    public long getPopulationOfCountry(int countryId) {
+        return countryId < 0 ? 0 : countryPopulations[countryId];
+    }
+
+    /*
+     * The columns of one chunk of the file, with country ids local to the chunk. The country names
+     * are dictionary encoded straight from the bytes: a name is hashed and compared in the buffer and
+     * only copied the first time the chunk sees it.
+     */
+    private static class Chunk {
+        private final ByteBuffer buffer;
+        private int[] countryIds = new int[1024];
+        private int[] populations = new int[1024];
+        private int size;
+        private byte[][] countryNames = new byte[64][];
+        private int[] nameHashes = new int[64];
+        private int countryCount;
+        private int[] table = new int[128]; // Country id + 1 per hash bucket, 0 marks an empty bucket
+
+        private Chunk(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        static Chunk parse(ByteBuffer buffer) {
+            Chunk chunk = new Chunk(buffer);
+            int limit = buffer.limit();
+            int lineStart = 0;
+            while (lineStart < limit) {
+                int lineEnd = lineStart;
+                while (lineEnd < limit && buffer.get(lineEnd) != '\n') lineEnd++;
+                chunk.parseLine(lineStart, lineEnd);
+                lineStart = lineEnd + 1;
+            }
+            return chunk;
+        }
+
+        /*
+         * Adds the city on the line from start to end, like line.split(";") followed by a trim of the
+         * country and population fields. Empty lines are skipped.
+         */
+        private void parseLine(int start, int end) {
+            if (end > start && buffer.get(end - 1) == '\r') end--;
+            if (end == start) return;
+            int countryStart = fieldStart(start, end, 3);
+            int populationStart = fieldStart(countryStart, end, 1);
+            int countryEnd = populationStart - 1;
+            int populationEnd = populationStart;
+            while (populationEnd < end && buffer.get(populationEnd) != ';') populationEnd++;
+            if (size == countryIds.length) {
+                countryIds = Arrays.copyOf(countryIds, size * 2);
+                populations = Arrays.copyOf(populations, size * 2);
+            }
+            countryIds[size] = countryId(countryStart, countryEnd);
+            populations[size] = parseInt(populationStart, populationEnd);
+            size++;
+        }
+
+        /*
+         * Returns the position after the given number of semicolons from start.
+         */
+        private int fieldStart(int start, int end, int fields) {
+            int position = start;
+            for (int field = 0; field < fields; field++) {
+                while (position < end && buffer.get(position) != ';') position++;
+                if (position == end) throw new ArrayIndexOutOfBoundsException("Line has too few fields");
+                position++;
+            }
+            return position;
+        }
+
+        private int countryId(int start, int end) {
+            while (start < end && (buffer.get(start) & 0xFF) <= ' ') start++;
+            while (end > start && (buffer.get(end - 1) & 0xFF) <= ' ') end--;
+            int hash = 0;
+            for (int i = start; i < end; i++) hash = 31 * hash + buffer.get(i);
+            int mask = table.length - 1;
+            int bucket = (hash ^ (hash >>> 16)) & mask;
+            for (; table[bucket] != 0; bucket = (bucket + 1) & mask) {
+                int countryId = table[bucket] - 1;
+                if (nameHashes[countryId] == hash && nameEquals(countryNames[countryId], start, end)) return countryId;
+            }
+            if (countryCount == countryNames.length) {
+                countryNames = Arrays.copyOf(countryNames, countryCount * 2);
+                nameHashes = Arrays.copyOf(nameHashes, countryCount * 2);
+            }
+            byte[] name = new byte[end - start];
+            buffer.get(start, name);
+            countryNames[countryCount] = name;
+            nameHashes[countryCount] = hash;
+            table[bucket] = ++countryCount;
+            if (countryCount * 2 > table.length) rehash();
+            return countryCount - 1;
+        }
+
+        private boolean nameEquals(byte[] name, int start, int end) {
+            if (name.length != end - start) return false;
+            for (int i = 0; i < name.length; i++) {
+                if (name[i] != buffer.get(start + i)) return false;
+            }
+            return true;
+        }
+
+        private void rehash() {
+            table = new int[table.length * 2];
+            int mask = table.length - 1;
+            for (int countryId = 0; countryId < countryCount; countryId++) {
+                int hash = nameHashes[countryId];
+                int bucket = (hash ^ (hash >>> 16)) & mask;
+                while (table[bucket] != 0) bucket = (bucket + 1) & mask;
+                table[bucket] = countryId + 1;
+            }
+        }
+
+        /*
+         * Parses the trimmed decimal int from start to end without creating a String.
+         */
+        private int parseInt(int start, int end) {
+            while (start < end && (buffer.get(start) & 0xFF) <= ' ') start++;
+            while (end > start && (buffer.get(end - 1) & 0xFF) <= ' ') end--;
+            boolean negative = start < end && buffer.get(start) == '-';
+            int position = negative || (start < end && buffer.get(start) == '+') ? start + 1 : start;
+            if (position == end) throw numberFormat(start, end);
+            long value = 0;
+            for (; position < end; position++) {
+                int digit = buffer.get(position) - '0';
+                if (digit < 0 || digit > 9) throw numberFormat(start, end);
+                value = value * 10 + digit;
+                if (value > (long) Integer.MAX_VALUE + 1) throw numberFormat(start, end);
+            }
+            value = negative ? -value : value;
+            if (value > Integer.MAX_VALUE) throw numberFormat(start, end);
+            return (int) value;
+        }
+
+        private NumberFormatException numberFormat(int start, int end) {
+            byte[] text = new byte[end - start];
+            buffer.get(start, text);
+            return new NumberFormatException("For input string: \"" + new String(text, StandardCharsets.UTF_8) + "\"");
+        }
+    }
+}
@@ -0,0 +1,164 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LatencyModel
+ * The simulated delays of the system, configured with system properties. There are three kinds of delay:
+ * the execution delay of a server computing a result, which is skipped for cache hits, the network
+ * delay between the zone of a client and the zone of the server it calls, and the network delay between
+ * two servers sharing cached results.
+ *
+ * latency.mode chooses how a delay is drawn from its configured mean: "fixed" (default) always waits
+ * the mean, "uniform" waits between 0 and twice the mean, "exponential" waits an exponentially
+ * distributed time, and "none" never waits, e.g. for throughput benchmarks.
+ *
+ * latency.executionMs is the mean execution delay (default 80). latency.remoteMs is the mean network
+ * delay between two different zones (default 90), and latency.zone.A.B overrides it for the calls from
+ * zone A to zone B. If only latency.zone.B.A is set it is used in both directions. Calls within a
+ * zone have no delay unless latency.zone.A.A is set. latency.peerMs is the mean network delay between
+ * two servers (default 20), which sit closer to each other than to the clients.
+ */
+public class LatencyModel {
+
+    /**
+     * How a delay is drawn from its mean.
+     */
+    public enum Mode { NONE, FIXED, UNIFORM, EXPONENTIAL }
+
+    private static final int ZONES = 5;
+
+    private final Mode mode;
+    private final long executionNanos;
+    private final long peerNanos;
+    private final long[][] networkNanos; // Mean delay from zone i + 1 to zone j + 1
+
+    /**
+     * Creates a latency model.
+     *
+     * @param mode how the delays are drawn
+     * @param executionNanos the mean execution delay in nanoseconds
+     * @param peerNanos the mean network delay between two servers in nanoseconds
+     * @param networkNanos the mean network delay from zone i + 1 to zone j + 1 in nanoseconds
+     */
+    public LatencyModel(Mode mode, long executionNanos, long peerNanos, long[][] networkNanos) {
+        this.mode = mode;
+        this.executionNanos = executionNanos;
+        this.peerNanos = peerNanos;
+        this.networkNanos = networkNanos;
+    }
+
+    /**
+     * Creates a latency model configured from the latency.* system properties.
+     */
+    public static LatencyModel fromSystemProperties() {
+        Mode mode = Mode.valueOf(System.getProperty("latency.mode", "fixed").toUpperCase());
+        long executionNanos = millisProperty("latency.executionMs", 80);
+        long peerNanos = millisProperty("latency.peerMs", 20);
+        long remoteNanos = millisProperty("latency.remoteMs", 90);
+        long[][] networkNanos = new long[ZONES][ZONES];
+        for (int from = 1; from <= ZONES; from++) {
+            for (int to = 1; to <= ZONES; to++) {
+                long defaultNanos = from == to ? 0 : remoteNanos;
+                long reverseNanos = millisProperty("latency.zone." + to + "." + from, defaultNanos / 1e6);
+                networkNanos[from - 1][to - 1] = millisProperty("latency.zone." + from + "." + to, reverseNanos / 1e6);
+            }
+        }
+        return new LatencyModel(mode, executionNanos, peerNanos, networkNanos);
+    }
+
+    /**
+     * Waits for the execution delay of a server computing a result.
+     */
+    public void simulateExecution() {
+        sleep(sample(executionNanos));
+    }
+
+    /**
+     * Waits for the network delay of a call from a client in one zone to a server in another.
+     *
+     * @param fromZone the zone of the client, 1 to 5
+     * @param toZone the zone of the server, 1 to 5
+     */
+    public void simulateNetwork(int fromZone, int toZone) {
+        sleep(sample(networkNanos[fromZone - 1][toZone - 1]));
+    }
+
+    /**
+     * Waits for the network delay of a call from one server to another.
+     */
+    public void simulatePeer() {
+        sleep(sample(peerNanos));
+    }
+
+    /**
+     * Returns the expected execution delay of a server computing a result, 0 in the mode none.
+     *
+     * @return the expected delay in nanoseconds
+     */
+    public long getExecutionNanos() {
+        return expected(executionNanos);
+    }
+
+    /**
+     * Returns the expected network delay of a call from one server to another, 0 in the mode none.
+     *
+     * @return the expected delay in nanoseconds
+     */
+    public long getPeerNanos() {
+        return expected(peerNanos);
+    }
+
+    /**
+     * Returns the mean network delay of a call from a client in one zone to a server in another.
+     *
+     * @param fromZone the zone of the client, 1 to 5
+     * @param toZone the zone of the server, 1 to 5
+     * @return the mean delay in nanoseconds
+     */
+    public long getNetworkNanos(int fromZone, int toZone) {
+        return networkNanos[fromZone - 1][toZone - 1];
+    }
+
+    /**
+     * Returns a delay drawn from the given mean according to the mode.
+     *
+     * @param meanNanos the mean delay in nanoseconds
+     * @return the delay in nanoseconds
+     */
+    public long sample(long meanNanos) {
+        if (meanNanos <= 0) return 0;
+        switch (mode) {
+            case NONE:
+                return 0;
+            case UNIFORM:
+                return ThreadLocalRandom.current().nextLong(2 * meanNanos + 1);
+            case EXPONENTIAL:
+                return (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * meanNanos);
+            default:
+                return meanNanos;
+        }
+    }
+
+    /*
+     * Returns the expected value of a delay drawn from the given mean. Every mode but none has the
+     * configured mean as its expected value.
+     */
+    private long expected(long meanNanos) {
+        return mode == Mode.NONE ? 0 : meanNanos;
+    }
+
+    private static long millisProperty(String name, double defaultMillis) {
+        String value = System.getProperty(name);
+        double millis = value == null ? defaultMillis : Double.parseDouble(value);
+        return Math.round(millis * 1e6);
+    }
+
+    private static void sleep(long nanos) {
+        if (nanos <= 0) return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
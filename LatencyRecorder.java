@@ -0,0 +1,103 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LatencyRecorder
+ * Collects the turnaround time, the server side phases and the RMI overhead of the queries per method
+ * and per server while the results arrive, and reports the averages together with tail percentiles.
+ * Times are recorded in nanoseconds and reported in milliseconds.
+ */
+public class LatencyRecorder {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private final Map<String, Timings> byMethod = new ConcurrentHashMap<>();
+    private final Map<String, Timings> byServer = new ConcurrentHashMap<>();
+
+    /*
+     * The histograms of the times for one method or server.
+     */
+    private static class Timings {
+        final LatencyHistogram turnaround = new LatencyHistogram();
+        final LatencyHistogram execution = new LatencyHistogram();
+        final LatencyHistogram waiting = new LatencyHistogram();
+        final LatencyHistogram cacheProbe = new LatencyHistogram();
+        final LatencyHistogram compute = new LatencyHistogram();
+        final LatencyHistogram handOff = new LatencyHistogram();
+        final LatencyHistogram rmiOverhead = new LatencyHistogram();
+    }
+
+    /**
+     * Records the times of one query.
+     *
+     * @param methodName the method, e.g. getNumberofCountriesMax for the range query
+     * @param server the server that executed the query, or cache
+     * @param turnAroundTime the turnaround time of the query in nanoseconds
+     * @param timing the times returned by the server, see Timing
+     * @param rmiOverhead the part of the turnaround time not spent on the server in nanoseconds
+     */
+    public void record(String methodName, String server, long turnAroundTime, long[] timing, long rmiOverhead) {
+        record(byMethod.computeIfAbsent(methodName, name -> new Timings()), turnAroundTime, timing, rmiOverhead);
+        record(byServer.computeIfAbsent(server, name -> new Timings()), turnAroundTime, timing, rmiOverhead);
+    }
+
+    /**
+     * Returns the report lines, first for the given methods in order and then for every server.
+     * For each one the averages are followed by the percentiles of each time.
+     *
+     * @param methodNames the methods to report
+     * @return the lines of the report
+     */
+    public List<String> report(String... methodNames) {
+        List<String> lines = new ArrayList<>();
+        for (String methodName : methodNames) {
+            Timings timings = byMethod.get(methodName);
+            if (timings != null) report(lines, methodName, timings);
+        }
+        for (Map.Entry<String, Timings> server : new TreeMap<>(byServer).entrySet()) {
+            report(lines, server.getKey(), server.getValue());
+        }
+        return lines;
+    }
+
+    private static void record(Timings timings, long turnAroundTime, long[] timing, long rmiOverhead) {
+        timings.turnaround.record(turnAroundTime);
+        timings.execution.record(timing[Timing.EXECUTION]);
+        timings.waiting.record(timing[Timing.WAITING]);
+        timings.cacheProbe.record(timing[Timing.CACHE_PROBE]);
+        timings.compute.record(timing[Timing.COMPUTE]);
+        timings.handOff.record(timing[Timing.HAND_OFF]);
+        timings.rmiOverhead.record(rmiOverhead);
+    }
+
+    private static void report(List<String> lines, String name, Timings timings) {
+        lines.add(name + " turnaround time:" + mean(timings.turnaround) + ", execution time:" + mean(timings.execution)
+                + ", waiting time:" + mean(timings.waiting) + ", cache probe time:" + mean(timings.cacheProbe)
+                + ", compute time:" + mean(timings.compute) + ", hand off time:" + mean(timings.handOff)
+                + ", rmi overhead:" + mean(timings.rmiOverhead));
+        lines.add(percentiles(name + " turnaround time", timings.turnaround));
+        lines.add(percentiles(name + " execution time", timings.execution));
+        lines.add(percentiles(name + " waiting time", timings.waiting));
+        lines.add(percentiles(name + " cache probe time", timings.cacheProbe));
+        lines.add(percentiles(name + " compute time", timings.compute));
+        lines.add(percentiles(name + " hand off time", timings.handOff));
+        lines.add(percentiles(name + " rmi overhead", timings.rmiOverhead));
+    }
+
+    private static String mean(LatencyHistogram histogram) {
+        return Timing.toMillis(histogram.getMean()) + "ms";
+    }
+
+    private static String percentiles(String label, LatencyHistogram histogram) {
+        StringBuilder line = new StringBuilder(label).append(':');
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            line.append(' ').append(PERCENTILE_NAMES[i]).append('=').append(Timing.toMillis(histogram.getValueAtPercentile(PERCENTILES[i]))).append("ms");
+        }
+        line.append(" max=").append(Timing.toMillis(histogram.getMax())).append("ms count=").append(histogram.getCount());
+        return line.toString();
+    }
+}
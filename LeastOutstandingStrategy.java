@@ -0,0 +1,39 @@
+import java.util.List;
+
+/**
+ * LeastOutstandingStrategy
+ * Sends the query to the server with the least outstanding queries, as estimated by the proxy.
+ * Ties go to the server with the lower network delay from the client's zone, and then to the first
+ * server in zone order starting at the client's zone.
+ */
+public class LeastOutstandingStrategy implements BalancingStrategy {
+
+    private final LatencyModel latencyModel;
+
+    /**
+     * Creates the strategy.
+     *
+     * @param latencyModel gives the network delay between the zones
+     */
+    public LeastOutstandingStrategy(LatencyModel latencyModel) {
+        this.latencyModel = latencyModel;
+    }
+
+    @Override
+    public ServerNode select(int requestedZone, List<ServerNode> servers) {
+        ServerNode selected = null;
+        int selectedLoad = 0;
+        long selectedDelay = 0;
+        for (int i = 0; i < servers.size(); i++) {
+            ServerNode server = servers.get((requestedZone - 1 + i) % servers.size());
+            int load = server.getLoad();
+            long delay = latencyModel.getNetworkNanos(requestedZone, server.getZone());
+            if (selected == null || load < selectedLoad || (load == selectedLoad && delay < selectedDelay)) {
+                selected = server;
+                selectedLoad = load;
+                selectedDelay = delay;
+            }
+        }
+        return selected;
+    }
+}
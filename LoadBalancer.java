@@ -0,0 +1,122 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LoadBalancer
+ * The proxy's view of the servers and the strategy that chooses between them. It is kept apart from
+ * the RMI setup in ProxyServer, so the hot path of getServer can be benchmarked on its own.
+ *
+ * The list of nodes is immutable and every node keeps its state in atomics, so any number of RMI
+ * threads can call getServer and report at the same time without locking or allocating.
+ *
+ * A server that reports it is overloaded is only chosen if every server is overloaded. Otherwise the
+ * query goes to the least loaded of the other servers. The retry of a rejected query names the server
+ * that rejected it, which is skipped the same way even before its load report arrives.
+ */
+public class LoadBalancer {
+
+    private final List<ServerNode> servers;
+    private final BalancingStrategy strategy;
+
+    /**
+     * Creates a balancer over the servers of zones 1 to serverCount.
+     *
+     * @param serverCount the number of servers
+     * @param strategy chooses the server for a query
+     */
+    public LoadBalancer(int serverCount, BalancingStrategy strategy) {
+        List<ServerNode> nodes = new ArrayList<>();
+        for (int i = 0; i < serverCount; i++) nodes.add(new ServerNode(i + 1));
+        this.servers = List.copyOf(nodes);
+        this.strategy = strategy;
+    }
+
+    /**
+     * Creates a balancer with the strategy given by proxy.strategy.
+     *
+     * @param serverCount the number of servers
+     */
+    public static LoadBalancer fromSystemProperties(int serverCount) {
+        return new LoadBalancer(serverCount, BalancingStrategy.fromSystemProperties(serverCount, LatencyModel.fromSystemProperties()));
+    }
+
+    /**
+     * Chooses the server for a query from a client in the given zone and counts the assignment.
+     *
+     * @param requestedZone the zone of the client
+     * @return the registry name of the chosen server
+     */
+    public String getServer(int requestedZone) {
+        ServerNode selectedServer = avoidOverloaded(strategy.select(requestedZone, servers), null);
+        selectedServer.assign();
+        return selectedServer.getRegistryName();
+    }
+
+    /**
+     * Chooses the server for a query with the given routing hash from a client in the given zone
+     * and counts the assignment.
+     *
+     * @param requestedZone the zone of the client
+     * @param keyHash the routing hash of the query, see Query.routingHash
+     * @return the registry name of the chosen server
+     */
+    public String getServer(int requestedZone, int keyHash) {
+        ServerNode selectedServer = avoidOverloaded(strategy.select(requestedZone, keyHash, servers), null);
+        selectedServer.assign();
+        return selectedServer.getRegistryName();
+    }
+
+    /**
+     * Chooses the server for the retry of a query that the given server rejected as overloaded, and
+     * counts the assignment. The rejecting server is only chosen again if it is the only server.
+     *
+     * @param requestedZone the zone of the client
+     * @param keyHash the routing hash of the query, see Query.routingHash
+     * @param excludedServer the registry name of the server that rejected the query
+     * @return the registry name of the chosen server
+     */
+    public String getServer(int requestedZone, int keyHash, String excludedServer) {
+        ServerNode selectedServer = avoidOverloaded(strategy.select(requestedZone, keyHash, servers), excludedServer);
+        selectedServer.assign();
+        return selectedServer.getRegistryName();
+    }
+
+    /**
+     * Stores a load report pushed by a server.
+     *
+     * @param report the load report
+     */
+    public void report(LoadReport report) {
+        servers.get(Integer.parseInt(report.serverName().substring(6)) - 1).report(report);
+    }
+
+    /**
+     * Returns the servers, the server of zone i at index i - 1. The list is immutable.
+     */
+    public List<ServerNode> getServers() {
+        return servers;
+    }
+
+    /*
+     * Returns the selected server if it is neither overloaded nor excluded. Otherwise returns the least
+     * loaded server that is neither, or if there is none the least loaded overloaded server that is not
+     * excluded, and the excluded server only if it is the only one.
+     */
+    private ServerNode avoidOverloaded(ServerNode selectedServer, String excludedServer) {
+        if (penalty(selectedServer, excludedServer) == 0) return selectedServer;
+        ServerNode fallback = selectedServer;
+        for (ServerNode server : servers) {
+            int difference = penalty(server, excludedServer) - penalty(fallback, excludedServer);
+            if (difference < 0 || difference == 0 && server.getLoad() < fallback.getLoad()) fallback = server;
+        }
+        return fallback;
+    }
+
+    /*
+     * Returns how strongly the server is avoided: 2 if it is excluded, 1 if it is overloaded, otherwise 0.
+     */
+    private static int penalty(ServerNode server, String excludedServer) {
+        if (server.getRegistryName().equals(excludedServer)) return 2;
+        return server.isOverloaded() ? 1 : 0;
+    }
+}
@@ -0,0 +1,313 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LoadGenerator
+ * Capacity test for the proxy and the five servers. Starts an RMI registry, the ProxyServer and its
+ * servers in this process, and sends queries at a fixed rate, either replayed from an input file or
+ * drawn from a synthetic mix where the countries follow a Zipf distribution.
+ *
+ * The load is open loop: query i is due at start + i / rate, whether or not earlier queries have
+ * completed, and its turnaround time is measured from when it was due. A load generator that falls
+ * behind therefore shows up as higher latency instead of a lower rate.
+ *
+ * The report holds the throughput, the latency percentiles per method and per zone, the server cache
+ * hit ratio per server and the queue depth of every server over time. It is printed and written to
+ * load_report.txt. The hit ratio is taken from the lookup and hit counts of the server cache, the same
+ * counts as the cache hit rate in the load reports, so only the queries that probed the cache count.
+ *
+ * Queries are sent like the Client sends them: with client.deadlineMs counted from when they were due,
+ * and to up to client.retries other servers when a server is overloaded. Queries that every server
+ * turned away are reported as shed, not as failed.
+ *
+ * Usage: java LoadGenerator exercise_1_input.txt, or java LoadGenerator zipf for the synthetic mix.
+ */
+public class LoadGenerator {
+
+    private static final int SERVER_COUNT = 5;
+    private static final int RATE = Integer.getInteger("load.rate", 200); // Queries per second
+    private static final int DURATION_SECONDS = Integer.getInteger("load.durationSeconds", 30); // Length of a synthetic run
+    private static final double ZIPF_EXPONENT = Double.parseDouble(System.getProperty("load.zipfExponent", "1.0"));
+    private static final int SAMPLE_INTERVAL_MS = Integer.getInteger("load.sampleIntervalMs", 1000); // Between queue depth samples
+    private static final long SEED = Long.getLong("load.seed", 5020); // Seed of the synthetic mix
+    private static final int DEADLINE_MS = Integer.getInteger("client.deadlineMs", 5000); // Time a query may take, 0 for none
+    private static final int RETRIES = Integer.getInteger("client.retries", 2); // Other servers tried when a server is overloaded
+    private static final int[] THRESHOLDS = {1_000, 10_000, 100_000, 1_000_000};
+    private static final String[] METHOD_NAMES = {"getPopulationofCountry", "getNumberofCities", "getNumberofCountries", "getNumberofCountriesMax"};
+
+    private final StubCache stubCache = new StubCache(); // Registry stubs of the proxy and the servers
+    private final LatencyRecorder latencyRecorder = new LatencyRecorder(); // Times per method and zone
+    private final LatencyModel latencyModel = LatencyModel.fromSystemProperties(); // Simulated network delay between zones
+    private final ExecutorService callers = newCallers(); // Runs the remote calls
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final List<String> queueDepths = Collections.synchronizedList(new ArrayList<>());
+    private long startTime;
+
+    /*
+     * A query and the zone of the client sending it.
+     */
+    private record PlannedQuery(Query query, int zone) {}
+
+    /**
+     * Starts an RMI registry on the default port, and the proxy with its servers.
+     * The servers load the data set given by server.dataSet.
+     */
+    private static void startServers() throws IOException {
+        Registry registry = LocateRegistry.createRegistry(Registry.REGISTRY_PORT);
+        ProxyServer proxy = new ProxyServer();
+        registry.rebind("Proxy", UnicastRemoteObject.exportObject(proxy, 0));
+        System.err.println("Proxy is running...");
+    }
+
+    /**
+     * Reads the queries of an input file in the format of exercise_1_input.txt.
+     *
+     * @param filename the input file
+     * @return the queries in the order of the file
+     */
+    private static List<PlannedQuery> readInputFile(String filename) throws FileNotFoundException {
+        List<PlannedQuery> queries = new ArrayList<>();
+        try (Scanner scanner = new Scanner(new File(filename))) {
+            while (scanner.hasNextLine()) {
+                String line = scanner.nextLine();
+                if (line.isEmpty()) continue;
+                String[] tokens = line.split(" ");
+                queries.add(new PlannedQuery(Query.parse(tokens), Query.parseZone(tokens)));
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * Creates the synthetic mix: RATE * DURATION_SECONDS queries of the four methods in equal parts, from
+     * uniformly chosen zones. The rank of the country follows a Zipf distribution with exponent ZIPF_EXPONENT,
+     * so a few countries are asked for often, and the thresholds are taken from a small set, so queries repeat.
+     *
+     * @param dataSet the data set the country names are taken from
+     * @return the queries
+     */
+    private static List<PlannedQuery> zipfMix(DataSet dataSet) {
+        Random random = new Random(SEED);
+        int countryCount = dataSet.getCountryCount();
+        double[] cumulative = new double[countryCount];
+        double sum = 0;
+        for (int rank = 0; rank < countryCount; rank++) {
+            sum += 1 / Math.pow(rank + 1, ZIPF_EXPONENT);
+            cumulative[rank] = sum;
+        }
+
+        int count = RATE * DURATION_SECONDS;
+        List<PlannedQuery> queries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            if (rank < 0) rank = -rank - 1;
+            String countryName = dataSet.getCountryName(Math.min(rank, countryCount - 1));
+            int citycount = 1 + random.nextInt(10);
+            int minpopulation = THRESHOLDS[random.nextInt(THRESHOLDS.length)];
+            Query query;
+            switch (random.nextInt(4)) {
+                case 0:
+                    query = new Query(QueryType.POPULATION_OF_COUNTRY, countryName, 0, 0, 0);
+                    break;
+                case 1:
+                    query = new Query(QueryType.NUMBER_OF_CITIES, countryName, minpopulation, 0, 0);
+                    break;
+                case 2:
+                    query = new Query(QueryType.NUMBER_OF_COUNTRIES, null, citycount, minpopulation, 0);
+                    break;
+                default:
+                    query = new Query(QueryType.NUMBER_OF_COUNTRIES_IN_RANGE, null, citycount, minpopulation, minpopulation * 10);
+            }
+            queries.add(new PlannedQuery(query, 1 + random.nextInt(SERVER_COUNT)));
+        }
+        return queries;
+    }
+
+    /**
+     * Sends the queries at RATE queries per second and waits until all of them have completed,
+     * sampling the queue depths of the servers meanwhile.
+     *
+     * @param queries the queries to send
+     */
+    private void run(List<PlannedQuery> queries) {
+        long interval = 1_000_000_000L / RATE;
+        startTime = System.nanoTime();
+        sampler.scheduleAtFixedRate(this::sampleQueueDepths, 0, SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < queries.size(); i++) {
+            long dueTime = startTime + i * interval;
+            long delay;
+            while ((delay = dueTime - System.nanoTime()) > 0) LockSupport.parkNanos(delay);
+            PlannedQuery query = queries.get(i);
+            callers.execute(() -> send(query, dueTime));
+            sent.increment();
+        }
+        callers.shutdown();
+        try {
+            callers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sampler.shutdownNow();
+    }
+
+    /**
+     * Asks the proxy for a server, sends the query to it and records the times of the query.
+     * If the server is overloaded the proxy is asked again for another server, up to client.retries times.
+     *
+     * @param planned the query and its zone
+     * @param dueTime the time the query was due, in System.nanoTime() time
+     */
+    private void send(PlannedQuery planned, long dueTime) {
+        try {
+            Query query = planned.query();
+            String rejectingServer = null;
+            for (int attempt = 0; ; attempt++) {
+                String excludedServer = rejectingServer;
+                String serverName = stubCache.call("Proxy", (ProxyServerInterface proxy) -> excludedServer == null
+                        ? proxy.getServer(planned.zone(), query.routingHash())
+                        : proxy.getServer(planned.zone(), query.routingHash(), excludedServer));
+                long deadlineMs = DEADLINE_MS <= 0 ? 0 : Math.max(1, DEADLINE_MS - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - dueTime));
+                try {
+                    long[] result = stubCache.call(serverName, (ServerInterface stub) -> invoke(stub, query, deadlineMs));
+                    latencyModel.simulateNetwork(planned.zone(), Integer.parseInt(serverName.substring(6)));
+                    long turnAroundTime = System.nanoTime() - dueTime;
+                    latencyRecorder.record(methodName(query), "Zone:" + planned.zone(), turnAroundTime, result,
+                            Timing.rmiOverhead(turnAroundTime, result));
+                    completed.increment();
+                    return;
+                } catch (ServerOverloadedException e) {
+                    latencyModel.simulateNetwork(planned.zone(), Integer.parseInt(serverName.substring(6)));
+                    if (attempt >= RETRIES) {
+                        shed.increment();
+                        return;
+                    }
+                    retried.increment();
+                    rejectingServer = serverName;
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Load generator exception: " + e.toString());
+            failed.increment();
+        }
+    }
+
+    /**
+     * Invokes the server method of the query with the given deadline.
+     */
+    private static long[] invoke(ServerInterface stub, Query query, long deadlineMs) throws RemoteException {
+        switch (query.type()) {
+            case POPULATION_OF_COUNTRY:
+                return stub.getPopulationofCountry(query.countryName(), deadlineMs);
+            case NUMBER_OF_CITIES:
+                return stub.getNumberofCities(query.countryName(), query.first(), deadlineMs);
+            case NUMBER_OF_COUNTRIES:
+                return stub.getNumberofCountries(query.first(), query.second(), deadlineMs);
+            default:
+                return stub.getNumberofCountries(query.first(), query.second(), query.third(), deadlineMs);
+        }
+    }
+
+    /**
+     * Returns the method name used in the reports, getNumberofCountriesMax for the range query.
+     */
+    private static String methodName(Query query) {
+        return METHOD_NAMES[query.type().ordinal()];
+    }
+
+    /**
+     * Adds a line with the number of queued tasks of every server.
+     */
+    private void sampleQueueDepths() {
+        StringBuilder line = new StringBuilder("queue depth t=")
+                .append(Timing.toMillis(System.nanoTime() - startTime)).append("ms");
+        for (int i = 1; i <= SERVER_COUNT; i++) {
+            String serverName = "server" + i;
+            line.append(' ').append(serverName).append('=');
+            try {
+                line.append((int) stubCache.call(serverName, (ServerInterface stub) -> stub.getTaskQueueSize()));
+            } catch (Exception e) {
+                line.append('?');
+            }
+        }
+        queueDepths.add(line.toString());
+    }
+
+    /**
+     * Returns the lines of the report.
+     */
+    private List<String> report() {
+        long elapsedTime = System.nanoTime() - startTime;
+        double seconds = elapsedTime / 1e9;
+        List<String> lines = new ArrayList<>();
+        lines.add("queries sent: " + sent.sum() + ", completed: " + completed.sum() + ", failed: " + failed.sum()
+                + ", shed: " + shed.sum() + ", retries: " + retried.sum() + " in " + Timing.toMillis(elapsedTime) + "ms");
+        lines.add(String.format("throughput: %.1f queries/s, target rate: %d queries/s", completed.sum() / seconds, RATE));
+        lines.addAll(latencyRecorder.report(METHOD_NAMES));
+        for (int i = 1; i <= SERVER_COUNT; i++) {
+            String serverName = "server" + i;
+            try {
+                long[] counts = stubCache.call(serverName, (ServerInterface stub) -> stub.getCacheCounts());
+                double ratio = counts[0] == 0 ? 0 : (double) counts[1] / counts[0];
+                lines.add(String.format("%s cache hit ratio: %.3f (%d of %d)", serverName, ratio, counts[1], counts[0]));
+            } catch (Exception e) {
+                lines.add(serverName + " cache hit ratio: ?");
+            }
+        }
+        lines.addAll(queueDepths);
+        return lines;
+    }
+
+    /**
+     * Runs the remote calls on virtual threads if they are available, else on a cached thread pool,
+     * so a slow server never holds back the rate at which queries are sent.
+     */
+    private static ExecutorService newCallers() {
+        ExecutorService virtual = TaskExecutor.newVirtualThreadExecutor();
+        return virtual != null ? virtual : Executors.newCachedThreadPool();
+    }
+
+    public static void main(String[] args) {
+        try {
+            List<PlannedQuery> queries = "zipf".equals(args[0])
+                    ? zipfMix(DataSet.load(Server.DATA_SET_FILE))
+                    : readInputFile(args[0]);
+            startServers();
+            LoadGenerator loadGenerator = new LoadGenerator();
+            loadGenerator.run(queries);
+            List<String> report = loadGenerator.report();
+            try (FileWriter fw = new FileWriter("load_report.txt")) {
+                for (String line : report) {
+                    System.out.println(line);
+                    fw.write(line + "\n");
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Load generator exception: " + e.toString());
+            e.printStackTrace();
+        }
+        System.exit(0); // The exported servers would keep the JVM running
+    }
+}
@@ -0,0 +1,18 @@
+import java.io.Serializable;
+
+/**
+ * LoadReport
+ * A load heartbeat a server pushes to the proxy.
+ *
+ * @param serverName the registry name of the server, e.g. server3
+ * @param queueSize the number of tasks waiting to be started
+ * @param inFlight the number of tasks being executed
+ * @param serviceTimeNanos the exponentially weighted moving average of the task execution time in nanoseconds
+ * @param cacheHitRate the share of cache lookups since the previous report that were hits, or 0 if there were none
+ * @param overloaded whether the queue is full or the server has rejected queries since the previous report
+ */
+public record LoadReport(String serverName, int queueSize, int inFlight, long serviceTimeNanos, double cacheHitRate,
+        boolean overloaded) implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+}
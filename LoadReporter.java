@@ -0,0 +1,94 @@
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LoadReporter
+ * Pushes the load of a server to the proxy, so the proxy balances on fresh load data without calling
+ * the server. The load is sampled every server.reportIntervalMs (default 50) and pushed when the queue
+ * size, the number of tasks in flight or the overload state has changed, and otherwise every HEARTBEAT_INTERVALS samples,
+ * so a proxy that has missed a report catches up. A report that cannot be delivered is dropped.
+ */
+public class LoadReporter {
+
+    private static final int REPORT_INTERVAL_MS = Integer.getInteger("server.reportIntervalMs", 50);
+    private static final int HEARTBEAT_INTERVALS = 20;
+
+    private final String serverName;
+    private final TaskExecutor taskExecutor;
+    private final ServerCache cache;
+    private final StubCache stubCache = new StubCache(); // Registry stub of the proxy
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "load-reporter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Only used by the scheduler thread
+    private int lastQueueSize = -1;
+    private int lastInFlight = -1;
+    private boolean lastOverloaded;
+    private long lastRejected;
+    private int samplesSinceReport;
+    private long lastLookups;
+    private long lastHits;
+
+    /**
+     * Creates a reporter for a server. Reports are only pushed after start.
+     *
+     * @param serverName the registry name of the server
+     * @param taskExecutor gives the queue size, the tasks in flight and the service time
+     * @param cache gives the cache hit rate
+     */
+    public LoadReporter(String serverName, TaskExecutor taskExecutor, ServerCache cache) {
+        this.serverName = serverName;
+        this.taskExecutor = taskExecutor;
+        this.cache = cache;
+    }
+
+    /**
+     * Starts pushing reports to the proxy bound as "Proxy".
+     */
+    public void start() {
+        scheduler.scheduleAtFixedRate(this::sample, 0, REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops pushing reports.
+     */
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private void sample() {
+        int queueSize = taskExecutor.getQueueSize();
+        int inFlight = taskExecutor.getInFlight();
+        long rejected = taskExecutor.getRejectedCount();
+        boolean overloaded = rejected != lastRejected || queueSize >= taskExecutor.getQueueLimit();
+        samplesSinceReport++;
+        if (queueSize == lastQueueSize && inFlight == lastInFlight && overloaded == lastOverloaded
+                && samplesSinceReport < HEARTBEAT_INTERVALS) return;
+
+        long lookups = cache.getLookupCount();
+        long hits = cache.getHitCount();
+        double cacheHitRate = lookups == lastLookups ? 0 : (double) (hits - lastHits) / (lookups - lastLookups);
+        LoadReport report = new LoadReport(serverName, queueSize, inFlight, taskExecutor.getServiceTimeNanos(), cacheHitRate, overloaded);
+        try {
+            stubCache.call("Proxy", (ProxyServerInterface proxy) -> {
+                proxy.reportLoad(report);
+                return null;
+            });
+        } catch (RemoteException | NotBoundException e) {
+            return; // The proxy is not bound yet or unreachable, the next sample tries again
+        }
+        lastQueueSize = queueSize;
+        lastInFlight = inFlight;
+        lastOverloaded = overloaded;
+        lastRejected = rejected;
+        lastLookups = lookups;
+        lastHits = hits;
+        samplesSinceReport = 0;
+    }
+}
@@ -0,0 +1,179 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * PeerCache
+ * Lets the servers share their cached results, so a result computed on one server can be used by
+ * another instead of being computed again. The mode is chosen with the system property server.peerCache:
+ * "off" (default) keeps every cache on its own, "owner" gives every key a designated peer that a server
+ * asks on a local miss and sends its computed results to, and "broadcast" sends every computed result
+ * to all peers, so a later miss is answered by the local cache.
+ *
+ * The peers are only used if the expected network delay between two servers (latency.peerMs) is below
+ * both the expected execution delay and server.peerTimeoutMs (default 50), so a peer hit is cheaper than
+ * computing the result and usually arrives in time. With latency.mode=none computing is cheaper and the
+ * peers are not used. A lookup that takes longer than the timeout counts as a miss.
+ *
+ * The peer calls run on two small thread pools with bounded queues, one for lookups and one for sends,
+ * so the work for the peers cannot grow with the request rate. A lookup that finds its pool full counts
+ * as a miss, and a result that finds its pool full, or a peer that cannot be reached, is dropped. The
+ * data set never changes, so a shared result never has to be invalidated.
+ */
+public class PeerCache {
+
+    /**
+     * How the servers share their results.
+     */
+    public enum Mode { OFF, OWNER, BROADCAST }
+
+    private static final int LOOKUP_THREADS = 8; // Lookups in flight at once, beyond that they wait in the queue
+    private static final int LOOKUP_QUEUE = 32; // Waiting lookups, beyond that a lookup is a miss
+    private static final int SEND_THREADS = 8; // Sends in flight at once
+    private static final int SEND_QUEUE = 256; // Waiting sends, beyond that a result is not shared
+
+    private final Mode mode;
+    private final int zone;
+    private final int serverCount;
+    private final long timeoutNanos;
+    private final LatencyModel latencyModel;
+    private final boolean worthwhile; // Whether asking a peer is expected to be cheaper than computing
+    private final StubCache stubCache = new StubCache(); // Registry stubs of the peers
+    private final ExecutorService lookups = newBoundedExecutor("peer-lookup", LOOKUP_THREADS, LOOKUP_QUEUE);
+    private final ExecutorService sends = newBoundedExecutor("peer-send", SEND_THREADS, SEND_QUEUE);
+
+    /**
+     * Creates the peer cache of the server in the given zone.
+     *
+     * @param mode how the results are shared, not OFF
+     * @param zone the zone of the server, 1 to serverCount
+     * @param serverCount the number of servers, bound as "server" + zone
+     * @param timeoutNanos how long a lookup may take before it counts as a miss
+     * @param latencyModel gives the execution delay and the network delay between the servers
+     */
+    public PeerCache(Mode mode, int zone, int serverCount, long timeoutNanos, LatencyModel latencyModel) {
+        this.mode = mode;
+        this.zone = zone;
+        this.serverCount = serverCount;
+        this.timeoutNanos = timeoutNanos;
+        this.latencyModel = latencyModel;
+        worthwhile = latencyModel.getPeerNanos() < Math.min(latencyModel.getExecutionNanos(), timeoutNanos);
+    }
+
+    /**
+     * Creates the peer cache given by the server.peerCache and server.peerTimeoutMs system properties.
+     *
+     * @param zone the zone of the server, 1 to serverCount
+     * @param serverCount the number of servers
+     * @param latencyModel gives the execution delay and the network delay between the servers
+     * @return the peer cache, or null if server.peerCache is off
+     */
+    public static PeerCache fromSystemProperties(int zone, int serverCount, LatencyModel latencyModel) {
+        Mode mode = Mode.valueOf(System.getProperty("server.peerCache", "off").toUpperCase());
+        if (mode == Mode.OFF) return null;
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Integer.getInteger("server.peerTimeoutMs", 50));
+        return new PeerCache(mode, zone, serverCount, timeoutNanos, latencyModel);
+    }
+
+    /**
+     * Asks the designated peer of the key for its cached result. Only the owner mode asks peers, and
+     * only if the peer is not this server.
+     *
+     * @param key the key of the query
+     * @return the cached result of the peer, or ServerCache.MISS if it has none or did not answer in time
+     */
+    public long lookup(QueryKey key) {
+        int owner = ownerOf(key);
+        if (mode != Mode.OWNER || owner == zone || !worthwhile) return ServerCache.MISS;
+        Future<Long> result;
+        try {
+            result = lookups.submit(() -> {
+                long cachedResult = stubCache.call("server" + owner, (ServerInterface stub) -> stub.getCachedResult(key));
+                latencyModel.simulatePeer();
+                return cachedResult;
+            });
+        } catch (RejectedExecutionException e) {
+            return ServerCache.MISS;
+        }
+        try {
+            return result.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            result.cancel(true);
+            return ServerCache.MISS;
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            return ServerCache.MISS;
+        }
+    }
+
+    /**
+     * Sends a result this server has computed to the designated peer of the key, or to all peers in the
+     * broadcast mode, without waiting for them.
+     *
+     * @param key the key of the query
+     * @param value the result
+     */
+    public void publish(QueryKey key, long value) {
+        if (mode == Mode.OWNER) {
+            send(ownerOf(key), key, value);
+        } else {
+            for (int peer = 1; peer <= serverCount; peer++) send(peer, key, value);
+        }
+    }
+
+    /**
+     * Stops the threads of the peer calls.
+     */
+    public void stop() {
+        lookups.shutdownNow();
+        sends.shutdownNow();
+    }
+
+    private void send(int peer, QueryKey key, long value) {
+        if (peer == zone || !worthwhile) return;
+        try {
+            sends.execute(() -> {
+                latencyModel.simulatePeer();
+                try {
+                    stubCache.call("server" + peer, (ServerInterface stub) -> {
+                        stub.putCachedResult(key, value);
+                        return null;
+                    });
+                } catch (Exception e) {
+                    // The peer is not bound yet or unreachable, it computes the result itself
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Too many sends are waiting, the peer computes the result itself
+        }
+    }
+
+    /*
+     * Creates a pool of daemon threads with a bounded queue that rejects tasks when the queue is full.
+     * Idle threads time out, so a server whose peers are not used keeps no threads.
+     */
+    private static ExecutorService newBoundedExecutor(String name, int threads, int queueSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), task -> {
+                    Thread thread = new Thread(task, name);
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /*
+     * Returns the zone of the server that owns the key. The key hash is mixed, so consecutive
+     * parameters are spread over the servers.
+     */
+    private int ownerOf(QueryKey key) {
+        return Math.floorMod(Query.mix(key.hashCode()), serverCount) + 1;
+    }
+}
@@ -0,0 +1,154 @@
+import java.util.Arrays;
+
+/**
+ * PopulationIndex
+ * Keeps the city populations of every country as a sorted array, indexed by country id.
+ * Counting the cities of a country above a threshold is then a binary search.
+ *
+ * For the country queries the index also keeps order statistics: kthLargest[k - 1] holds, in sorted
+ * order, the k-th largest city population of every country that has at least k cities. A country has
+ * at least k cities with population >= min exactly when its k-th largest city does, so those queries
+ * are one binary search and never allocate.
+ */
+public class PopulationIndex {
+
+    private final int[][] sortedPopulations;
+    private final int[][] kthLargest;
+
+    /**
+     * Builds the index from the columns of the given data set.
+     *
+     * @param dataSet the loaded data set
+     */
+    public PopulationIndex(DataSet dataSet) {
+        int[] countryIds = dataSet.getCountryIds();
+        int[] populations = dataSet.getPopulations();
+        int[] cityCounts = new int[dataSet.getCountryCount()];
+        for (int countryId : countryIds) cityCounts[countryId]++;
+
+        sortedPopulations = new int[cityCounts.length][];
+        for (int i = 0; i < cityCounts.length; i++) sortedPopulations[i] = new int[cityCounts[i]];
+        int[] fill = new int[cityCounts.length];
+        for (int i = 0; i < countryIds.length; i++) {
+            int countryId = countryIds[i];
+            sortedPopulations[countryId][fill[countryId]++] = populations[i];
+        }
+        for (int[] countryPopulations : sortedPopulations) Arrays.sort(countryPopulations);
+
+        int maxCities = 0;
+        for (int cityCount : cityCounts) maxCities = Math.max(maxCities, cityCount);
+        int[] countriesWithAtLeast = new int[maxCities];
+        for (int cityCount : cityCounts) {
+            for (int k = 0; k < cityCount; k++) countriesWithAtLeast[k]++;
+        }
+        kthLargest = new int[maxCities][];
+        for (int k = 0; k < maxCities; k++) kthLargest[k] = new int[countriesWithAtLeast[k]];
+        int[] next = new int[maxCities];
+        for (int[] countryPopulations : sortedPopulations) {
+            int n = countryPopulations.length;
+            for (int k = 0; k < n; k++) kthLargest[k][next[k]++] = countryPopulations[n - 1 - k];
+        }
+        for (int[] values : kthLargest) Arrays.sort(values);
+    }
+
+    /**
+     * Returns the number of cities in the given country with a population greater than or equal to min.
+     *
+     * @param countryId the country id from the data set, or -1 for an unknown country
+     * @param min the minimum population size of the cities
+     * @return the number of matching cities
+     */
+    public int countCitiesAtLeast(int countryId, int min) {
+        if (countryId < 0) return 0;
+        int[] countryPopulations = sortedPopulations[countryId];
+        return countryPopulations.length - lowerBound(countryPopulations, min);
+    }
+
+    /**
+     * Returns the number of countries with at least citycount cities with a population greater than
+     * or equal to min. Only countries with at least one such city are counted.
+     *
+     * @param citycount the minimum number of cities in a country
+     * @param min the minimum population size of the cities
+     * @return the number of matching countries
+     */
+    public int countCountriesAtLeast(int citycount, int min) {
+        int k = Math.max(citycount, 1);
+        if (k > kthLargest.length) return 0;
+        int[] values = kthLargest[k - 1];
+        return values.length - lowerBound(values, min);
+    }
+
+    /**
+     * Returns the number of countries with at least citycount cities with a population between
+     * min and max, both inclusive. Only countries with at least one such city are counted.
+     *
+     * @param citycount the minimum number of cities in a country
+     * @param min the minimum population size of the cities
+     * @param max the maximum population size of the cities
+     * @return the number of matching countries
+     */
+    public int countCountriesInRange(int citycount, int min, int max) {
+        if (min > max) return 0;
+        int k = Math.max(citycount, 1);
+        if (k > kthLargest.length) return 0;
+        int result = 0;
+        for (int[] countryPopulations : sortedPopulations) {
+            if (countryPopulations.length < k) continue;
+            if (upperBound(countryPopulations, max) - lowerBound(countryPopulations, min) >= k) result++;
+        }
+        return result;
+    }
+
+    /**
+     * Answers several range queries in a single pass over the countries. Query i asks for the
+     * number of countries with at least citycounts[i] cities with a population between mins[i]
+     * and maxs[i], as in countCountriesInRange(int, int, int).
+     *
+     * @param citycounts the minimum number of cities in a country, per query
+     * @param mins the minimum population size of the cities, per query
+     * @param maxs the maximum population size of the cities, per query
+     * @return the number of matching countries, per query
+     */
+    public int[] countCountriesInRange(int[] citycounts, int[] mins, int[] maxs) {
+        int[] results = new int[citycounts.length];
+        for (int[] countryPopulations : sortedPopulations) {
+            for (int i = 0; i < results.length; i++) {
+                if (mins[i] > maxs[i] || countryPopulations.length < Math.max(citycounts[i], 1)) continue;
+                int cityCount = upperBound(countryPopulations, maxs[i]) - lowerBound(countryPopulations, mins[i]);
+                if (cityCount >= Math.max(citycounts[i], 1)) results[i]++;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns the index of the first element that is greater than or equal to value,
+     * or the array length if there is none.
+     */
+    static int lowerBound(int[] sorted, int value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < value) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the first element that is greater than value,
+     * or the array length if there is none.
+     */
+    static int upperBound(int[] sorted, int value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] <= value) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,41 @@
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * PowerOfTwoChoicesStrategy
+ * Picks two different servers at random and sends the query to the one with the lower cost. The cost
+ * is the load of the server plus a penalty for every millisecond of network delay between the client's
+ * zone and the server's zone, so a remote server is only chosen when it is enough less loaded.
+ * The default penalty of 0.2 makes the default remote delay of 90 ms worth 18 queued queries.
+ */
+public class PowerOfTwoChoicesStrategy implements BalancingStrategy {
+
+    private final LatencyModel latencyModel;
+    private final double zonePenalty;
+
+    /**
+     * Creates the strategy.
+     *
+     * @param latencyModel gives the network delay between the zones
+     * @param zonePenalty the load a millisecond of network delay is worth
+     */
+    public PowerOfTwoChoicesStrategy(LatencyModel latencyModel, double zonePenalty) {
+        this.latencyModel = latencyModel;
+        this.zonePenalty = zonePenalty;
+    }
+
+    @Override
+    public ServerNode select(int requestedZone, List<ServerNode> servers) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(servers.size());
+        int second = random.nextInt(servers.size() - 1);
+        if (second >= first) second++;
+        ServerNode firstServer = servers.get(first);
+        ServerNode secondServer = servers.get(second);
+        return cost(requestedZone, firstServer) <= cost(requestedZone, secondServer) ? firstServer : secondServer;
+    }
+
+    private double cost(int requestedZone, ServerNode server) {
+        return server.getLoad() + zonePenalty * latencyModel.getNetworkNanos(requestedZone, server.getZone()) / 1e6;
+    }
+}
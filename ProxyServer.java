@@ -6,46 +6,27 @@ import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Random;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class ProxyServer implements ProxyServerInterface {
 
-    class ServerNode {
-        String registryName;
-        int serverId;
-        int waiting = 0;
-        int counter = 0;
-        ServerNode next;
-        // Constructor
-        public ServerNode(int serverId) {
-            this.serverId = serverId;
-        }
-    }
     private static final int NUM_SERVERS = 5;
-    private final ArrayList<ServerNode> servers = new ArrayList<>();
-    private final ExecutorService executor = Executors.newFixedThreadPool(NUM_SERVERS);
+    private final StubCache stubCache = new StubCache(); // Registry stubs of the servers
+    private final LoadBalancer loadBalancer = LoadBalancer.fromSystemProperties(NUM_SERVERS); // Server loads and the balancing strategy
 
     /**
      * Constructor of ProxyServer. Makes the 5 servers and binds them in the registry
      */
     public ProxyServer() {    
-        
-        for (int i = 0; i < NUM_SERVERS; i++) {
-            servers.add(new ServerNode(i+1));
-        }
-
+        List<ServerNode> servers = loadBalancer.getServers();
         for (int i = 0; i < servers.size(); i++) {
             ServerNode currentServer = servers.get(i);
-            if (i == servers.size() - 1) currentServer.next = servers.get(0);
-            else currentServer.next = servers.get(i+1);
             try {
                 Server obj = new Server();
                 ServerInterface stub = (ServerInterface) UnicastRemoteObject.exportObject(obj, 0);
                 Registry registry = LocateRegistry.getRegistry();
-                registry.rebind("server" + (i+1), stub);
-                currentServer.registryName = "server" + (i+1);
+                registry.rebind(currentServer.getRegistryName(), stub);
+                obj.startLoadReports(currentServer.getRegistryName());
+                obj.startPeerCache(currentServer.getZone(), servers.size());
                 System.err.println("Server " + (i+1) + " is running...");
             } catch (RemoteException e) {
                 e.printStackTrace();
@@ -56,62 +37,60 @@ public class ProxyServer implements ProxyServerInterface {
     }
 
     /**
-     * Figures out which server the client can send the query to, and returns it
+     * Figures out which server the client can send the query to with the balancing strategy, and returns it.
+     * The strategy works on the load the servers have pushed, so no server is called here.
      * @param requestedZone The server zone that the client is in
      * @return The registry name of the server that the client will use for the query
      */
     @Override
     public String getServer(int requestedZone) throws RemoteException {
-        int requestedZoneIndex = requestedZone - 1;
-
-        ServerNode zoneServer = servers.get(requestedZoneIndex);
-        ServerNode neighbor = zoneServer.next;
-        ServerNode neighbor2 = neighbor.next;
-        int comparison = Integer.compare(neighbor.waiting, neighbor2.waiting);
+        return loadBalancer.getServer(requestedZone);
+    }
 
-        ServerNode selectedServer;
-       
-        if (zoneServer.waiting < 18 || (neighbor.waiting >= 18 && neighbor2.waiting >= 18)) {selectedServer = zoneServer;
-        } else if (comparison == 0) {
-            Random random = new Random();
-            selectedServer = random.nextBoolean() ? neighbor : neighbor2; 
-        } else if (comparison < 0) {selectedServer = neighbor;
-        } else {selectedServer = neighbor2;}
+    /**
+     * Figures out which server the client can send the query with the given routing hash to, and returns it.
+     * With the hash strategy every query has a home server, so its result is cached on one server only.
+     * @param requestedZone The server zone that the client is in
+     * @param keyHash The routing hash of the query, see Query.routingHash
+     * @return The registry name of the server that the client will use for the query
+     */
+    @Override
+    public String getServer(int requestedZone, int keyHash) throws RemoteException {
+        return loadBalancer.getServer(requestedZone, keyHash);
+    }
 
-        selectedServer.counter++;
-        if (selectedServer.counter >= 18) {
-            selectedServer.counter = 0;
-            executor.submit(() -> updateServerInfo(selectedServer));
-        }
-        return selectedServer.registryName;
-    }    
+    /**
+     * Figures out which server to retry a query on that the given server rejected as overloaded, and returns it.
+     * The rejecting server is skipped even if its load report does not say it is overloaded yet.
+     * @param requestedZone The server zone that the client is in
+     * @param keyHash The routing hash of the query, see Query.routingHash
+     * @param excludedServer The registry name of the server that rejected the query
+     * @return The registry name of the server that the client will retry the query on
+     */
+    @Override
+    public String getServer(int requestedZone, int keyHash, String excludedServer) throws RemoteException {
+        return loadBalancer.getServer(requestedZone, keyHash, excludedServer);
+    }
 
     /**
-     * Updates the waiting list number in the ServerNode with the actual number of waiting tasks in the server
-     * @param serverToUpdate The server zone that the client is in
+     * Stores a load heartbeat pushed by a server
+     * @param report The load of the server
      */
-    private void updateServerInfo(ServerNode serverToUpdate) {
-        try {
-            Registry registry = LocateRegistry.getRegistry();
-            ServerInterface stub = (ServerInterface) registry.lookup(serverToUpdate.registryName);
-            serverToUpdate.waiting = stub.getTaskQueueSize();
-        } catch (RemoteException | NotBoundException e) {
-            e.printStackTrace();
-        }
+    @Override
+    public void reportLoad(LoadReport report) {
+        loadBalancer.report(report);
     }
     /**
      * Loops through the servers and gets the cache for each one and adds them to a list that is returned
      * @return List of server caches
      */
     @Override
-    public List<LinkedHashMap<String, Integer>> getServerCaches() {
-        List<LinkedHashMap<String, Integer>> serverCaches = new ArrayList<>();
+    public List<LinkedHashMap<String, Long>> getServerCaches() {
+        List<LinkedHashMap<String, Long>> serverCaches = new ArrayList<>();
         for (int i = 0; i < NUM_SERVERS; i++) {
             try {
-                ServerNode server = servers.get(i);
-                Registry registry = LocateRegistry.getRegistry();
-                ServerInterface stub = (ServerInterface) registry.lookup(server.registryName);
-                LinkedHashMap<String, Integer> cache = stub.getServerCache();
+                ServerNode server = loadBalancer.getServers().get(i);
+                LinkedHashMap<String, Long> cache = stubCache.call(server.getRegistryName(), (ServerInterface stub) -> stub.getServerCache());
                 serverCaches.add(cache);
             } catch (RemoteException | NotBoundException e) {
                 e.printStackTrace();
@@ -5,5 +5,8 @@ import java.util.List;
 
 public interface ProxyServerInterface extends Remote {
     String getServer(int zoneNumber) throws RemoteException;
-    List<LinkedHashMap<String, Integer>> getServerCaches() throws RemoteException;
+    String getServer(int zoneNumber, int keyHash) throws RemoteException;
+    String getServer(int zoneNumber, int keyHash, String excludedServer) throws RemoteException;
+    List<LinkedHashMap<String, Long>> getServerCaches() throws RemoteException;
+    void reportLoad(LoadReport report) throws RemoteException;
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Query
+ * A query sent to a server, e.g. as part of a batch. The country name is only used by the
+ * country queries and the numeric parameters a query type does not use are 0.
+ */
+public record Query(QueryType type, String countryName, int first, int second, int third) implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Parses a line of the input file, split on single spaces, e.g.
+     * "getNumberofCities Equatorial Guinea 5000 Zone:2". The zone is not part of the query.
+     *
+     * @param tokens the tokens of the input line
+     * @return the parsed query
+     * @throws IllegalArgumentException if the method name is unknown
+     */
+    public static Query parse(String[] tokens) {
+        int tokensLen = tokens.length;
+        switch (tokens[0]) {
+            case "getPopulationofCountry":
+                return new Query(QueryType.POPULATION_OF_COUNTRY, joinCountry(tokens, tokensLen - 1), 0, 0, 0);
+            case "getNumberofCities":
+                return new Query(QueryType.NUMBER_OF_CITIES, joinCountry(tokens, tokensLen - 2),
+                        Integer.parseInt(tokens[tokensLen - 2]), 0, 0);
+            case "getNumberofCountries":
+                if (tokensLen == 5) {
+                    return new Query(QueryType.NUMBER_OF_COUNTRIES, null,
+                            Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2]), 0);
+                }
+                return new Query(QueryType.NUMBER_OF_COUNTRIES_IN_RANGE, null,
+                        Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2]), Integer.parseInt(tokens[3]));
+            default:
+                throw new IllegalArgumentException("Invalid method name " + tokens[0]);
+        }
+    }
+
+    /**
+     * Returns a hash of the query that is the same in every JVM, so every client sends the same hash
+     * for the same query and the proxy can route it to the server that caches it. The bits are mixed
+     * with the MurmurHash3 finalizer, so similar queries land far apart on a hash ring.
+     */
+    public int routingHash() {
+        int hash = type.ordinal();
+        hash = 31 * hash + (countryName == null ? 0 : countryName.hashCode());
+        hash = 31 * hash + first;
+        hash = 31 * hash + second;
+        hash = 31 * hash + third;
+        return mix(hash);
+    }
+
+    /**
+     * Mixes the bits of a hash with the MurmurHash3 finalizer.
+     */
+    public static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    /**
+     * Returns the zone number at the end of an input line, e.g. 2 for "Zone:2".
+     */
+    public static int parseZone(String[] tokens) {
+        return tokens[tokens.length - 1].charAt(5) - '0';
+    }
+
+    private static String joinCountry(String[] tokens, int end) {
+        return String.join(" ", Arrays.copyOfRange(tokens, 1, end));
+    }
+}
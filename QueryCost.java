@@ -0,0 +1,14 @@
+/**
+ * QueryCost
+ * How expensive a task of a server is expected to be, known before the task is queued. The server
+ * classifies a task from its query type and whether its result is cached, and the task executor runs
+ * cheaper tasks first, see TaskExecutor.
+ */
+public enum QueryCost {
+    /** Every result of the task is cached, e.g. a batch of cached queries. */
+    CACHE_HIT,
+    /** A lookup in the population index or the precomputed country totals: getNumberofCities, getNumberofCountries and uncached population queries. */
+    INDEX_LOOKUP,
+    /** A result that has to be aggregated over many countries: uncached range queries. */
+    AGGREGATION
+}
@@ -0,0 +1,57 @@
+import java.io.Serializable;
+
+/**
+ * QueryKey
+ * Compact cache key for a query. Countries are stored as their data set id and the numeric
+ * parameters as plain ints, so building a key never concatenates or hashes strings.
+ * Parameters a query type does not use are 0.
+ */
+public record QueryKey(QueryType type, int first, int second, int third) implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static QueryKey populationOfCountry(int countryId) {
+        return new QueryKey(QueryType.POPULATION_OF_COUNTRY, countryId, 0, 0);
+    }
+
+    public static QueryKey numberOfCities(int countryId, int min) {
+        return new QueryKey(QueryType.NUMBER_OF_CITIES, countryId, min, 0);
+    }
+
+    public static QueryKey numberOfCountries(int citycount, int minpopulation) {
+        return new QueryKey(QueryType.NUMBER_OF_COUNTRIES, citycount, minpopulation, 0);
+    }
+
+    public static QueryKey numberOfCountries(int citycount, int minpopulation, int maxpopulation) {
+        return new QueryKey(QueryType.NUMBER_OF_COUNTRIES_IN_RANGE, citycount, minpopulation, maxpopulation);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = type.ordinal();
+        hash = hash * 0x9E3779B1 + first;
+        hash = hash * 0x9E3779B1 + second;
+        hash = hash * 0x9E3779B1 + third;
+        return hash ^ (hash >>> 15);
+    }
+
+    /**
+     * Renders the key in the string format used by server_cache.txt,
+     * e.g. getNumberOfCountries_2_28523 or getPopulationofCountry_Canada.
+     *
+     * @param dataSet the data set used to look up country names
+     * @return the rendered key
+     */
+    public String render(DataSet dataSet) {
+        switch (type) {
+            case POPULATION_OF_COUNTRY:
+                return type.getCacheName() + "_" + dataSet.getCountryName(first);
+            case NUMBER_OF_CITIES:
+                return type.getCacheName() + "_" + dataSet.getCountryName(first) + "_" + second;
+            case NUMBER_OF_COUNTRIES:
+                return type.getCacheName() + "_" + first + "_" + second;
+            default:
+                return type.getCacheName() + "_" + first + "_" + second + "_" + third;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+/**
+ * QueryType
+ * The kinds of queries a server answers. The cache name is the prefix used when
+ * cache keys are rendered as strings, e.g. in server_cache.txt.
+ */
+public enum QueryType {
+    POPULATION_OF_COUNTRY("getPopulationofCountry"),
+    NUMBER_OF_CITIES("getNumberOfCities"),
+    NUMBER_OF_COUNTRIES("getNumberOfCountries"),
+    NUMBER_OF_COUNTRIES_IN_RANGE("getNumberOfCountries");
+
+    private final String cacheName;
+
+    QueryType(String cacheName) {
+        this.cacheName = cacheName;
+    }
+
+    /**
+     * Returns the prefix of the rendered cache keys for this query type.
+     */
+    public String getCacheName() {
+        return cacheName;
+    }
+}
@@ -0,0 +1,104 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ResultWriter
+ * Writes lines to an output file from a single background thread. Callers only put the line
+ * in a bounded queue, the writer thread drains it into a buffered file and flushes it at a fixed
+ * interval and when it is closed. If the queue is full, callers wait until the writer catches up.
+ */
+public class ResultWriter implements Closeable {
+
+    private static final String END = new String("END"); // Compared by identity to stop the writer thread
+    private static final int QUEUE_CAPACITY = 65536;
+    private static final long FLUSH_INTERVAL_MS = 200;
+
+    private final BlockingQueue<String> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final BufferedWriter writer;
+    private final Thread writerThread;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    /**
+     * Creates the output file, replacing an existing one, and starts the writer thread.
+     *
+     * @param fileName the output file
+     * @throws IOException if the file cannot be created
+     */
+    public ResultWriter(String fileName) throws IOException {
+        writer = new BufferedWriter(new FileWriter(fileName), 1 << 16);
+        writerThread = new Thread(this::drain, "result-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queues a line for writing. A newline is added.
+     *
+     * @param line the line to write
+     * @throws IllegalStateException if the writer is closed
+     */
+    public void write(String line) {
+        if (closed) throw new IllegalStateException("Result writer is closed");
+        if (failure != null) return; // The writer thread has stopped, the error is reported by close
+        try {
+            queue.put(line);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes all queued lines, flushes and closes the file.
+     *
+     * @throws IOException if writing to the file failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            queue.put(END);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) throw failure;
+    }
+
+    /*
+     * Runs on the writer thread until the END marker is taken from the queue.
+     */
+    private void drain() {
+        try {
+            long lastFlush = System.nanoTime();
+            while (true) {
+                String line = queue.poll(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                while (line != null) {
+                    if (line == END) {
+                        writer.close();
+                        return;
+                    }
+                    writer.write(line);
+                    writer.write('\n');
+                    line = queue.poll();
+                }
+                if (System.nanoTime() - lastFlush >= TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MS)) {
+                    writer.flush();
+                    lastFlush = System.nanoTime();
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+            System.err.println("Error writing to output file in ResultWriter : " + e.getMessage());
+            queue.clear();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -2,16 +2,18 @@ import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.Map;
-import java.util.Queue;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 
 /** 
@@ -21,337 +23,540 @@ import java.io.IOException;
 
 public class Server implements ServerInterface {
 
-    private static final int MAX_CACHE_SIZE = 150; // Specify the maximum cache size
-    LinkedHashMap<String, Integer> cache = new LinkedHashMap<String, Integer>(MAX_CACHE_SIZE + 1, 1.0f, true) {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
-            return size() > MAX_CACHE_SIZE;
-        }
-    };
-
-    private Queue<Runnable> taskQueue = new LinkedList<>(); // Kø for oppgaver som behandles asynkront.
-
-    private final String dataSetFile = "exercise_1_dataset.csv";
-
-    // Forbedret konstruktør med oppstart av oppgaveutførelsestråd.
-    public Server() throws RemoteException {
-
-        // Starter en egen tråd for å håndtere asynkron oppgaveutførelse.
-        new Thread(() -> {
-            while (true) {
-                Runnable task;
-                synchronized (taskQueue) {
-                    while (taskQueue.isEmpty()) {
-                        try {
-                            // Venter på oppgaver hvis køen er tom.
-                            taskQueue.wait();
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            return;
-                        }
-                    }
-                    task = taskQueue.poll();
-                }
-                task.run(); // Utfører oppgaven asynkront.
-            }
-        }).start();
+    private final ServerCache cache = ServerCache.fromSystemProperties(); // Concurrent LRU cache of query results.
+
+    private final TaskExecutor taskExecutor = TaskExecutor.fromSystemProperties(); // Runs the tasks asynchronously.
+    private final ConcurrentHashMap<QueryKey, PendingQuery> inFlight = new ConcurrentHashMap<>(); // Queued or executing queries.
+
+    static final String DATA_SET_FILE = System.getProperty("server.dataSet", "exercise_1_dataset.csv");
+    private final DataSet dataSet; // The data set is loaded once and kept in memory.
+    private final PopulationIndex populationIndex; // Sorted city populations per country.
+    private final LatencyModel latencyModel = LatencyModel.fromSystemProperties(); // Simulated execution delay.
+    private LoadReporter loadReporter; // Pushes the load to the proxy once started.
+    private volatile PeerCache peerCache; // Shares results with the other servers once started, null if server.peerCache is off.
+
+    // Loads the data set and builds the indexes. Tasks are run by the task executor.
+    public Server() throws IOException {
+        this(DATA_SET_FILE);
+    }
+
+    /**
+     * Creates a server over the given data set file, e.g. a generated data set in the benchmarks.
+     *
+     * @param dataSetFile the semicolon separated data set file
+     * @throws IOException if the file cannot be read
+     */
+    public Server(String dataSetFile) throws IOException {
+        dataSet = DataSet.load(dataSetFile);
+        populationIndex = new PopulationIndex(dataSet);
     }
     
+    /**
+     * Starts pushing the load of this server to the proxy, see LoadReporter.
+     *
+     * @param serverName the registry name this server is bound as
+     */
+    public synchronized void startLoadReports(String serverName) {
+        if (loadReporter != null) return;
+        loadReporter = new LoadReporter(serverName, taskExecutor, cache);
+        loadReporter.start();
+    }
+
+    /**
+     * Starts sharing cached results with the other servers if server.peerCache is set, see PeerCache.
+     *
+     * @param zone the zone of this server, bound as "server" + zone
+     * @param serverCount the number of servers
+     */
+    public synchronized void startPeerCache(int zone, int serverCount) {
+        if (peerCache != null) return;
+        peerCache = PeerCache.fromSystemProperties(zone, serverCount, latencyModel);
+    }
+
     /**
      * Returns the server cache.
      *
      * @return the server cache
      */
     @Override
-    public LinkedHashMap<String, Integer> getServerCache() {
-        LinkedHashMap<String, Integer> serverCache = new LinkedHashMap<String, Integer>();
-        synchronized (this.cache) {
-            serverCache.putAll(this.cache);
-        }
-        return serverCache; 
+    public LinkedHashMap<String, Long> getServerCache() {
+        return cache.snapshot(key -> key.render(dataSet));
     } 
 
      /**
-     * Returns the number of tasks in the task queue.
+     * Returns the locally cached result for the key, for a peer that missed it. The result is never computed.
+     * The lookup is neither counted nor marks the entry as recently used, so the hit rate and the eviction
+     * order of this server only reflect its own queries.
+     *
+     * @param key the key of the query
+     * @return the cached result, or ServerCache.MISS
+     */
+    @Override
+    public long getCachedResult(QueryKey key) {
+        return cache.peek(key);
+    }
+
+    /**
+     * Caches a result computed by a peer.
+     *
+     * @param key the key of the query
+     * @param value the result
+     */
+    @Override
+    public void putCachedResult(QueryKey key, long value) {
+        cache.put(key, value);
+    }
+
+    /**
+     * Returns the number of tasks that are waiting to be executed.
      *
      * @return the size of the task queue
      */
     @Override
     public int getTaskQueueSize() {
-        synchronized (taskQueue) {
-            return taskQueue.size();
-        }
+        return taskExecutor.getQueueSize();
+    }
+
+    /**
+     * Returns the number of cache lookups and hits since the server started, the counts its load reports
+     * take the cache hit rate from. A lookup is counted once per query, see answerFromCache and probe.
+     *
+     * @return the number of lookups followed by the number of hits
+     */
+    @Override
+    public long[] getCacheCounts() {
+        return new long[] {cache.getLookupCount(), cache.getHitCount()};
     }
 
     /**
      * Returns the population of the given country. The cache is checked 
-     * for the result before the data set is searched. The server wraps the 
-     * task in a FutureTask and adds it to a synchronized queue.
-     * The server then notifies the worker thread that there is a new task in the queue.
-     * The server then waits for the worker thread to complete the task and return the result.
+     * for the result before the task is queued, so a cache hit never waits. Otherwise the server wraps the 
+     * task in a FutureTask and hands it to the task executor, unless the same query is already in flight.
+     * The server then waits for a worker to complete the task and return the result.
      * 
      * @param countryName the name of the country to retrieve the population for
-     * @return an array of three long values representing the population, the execution time, and the waiting time
+     * @param deadlineMs how long the caller waits for the result in milliseconds, 0 for no deadline
+     * @return the population followed by the times described in Timing
      * @throws RemoteException if a remote communication error occurs
+     * @throws ServerOverloadedException if the query was rejected or shed, see execute
      */
     @Override
-    public long[] getPopulationofCountry(String countryName) throws RemoteException {
-        long waitingStartTime = System.currentTimeMillis();
-        
-        FutureTask<long[]> futureTask = new FutureTask<>(() -> {
-            long waitingStopTime = System.currentTimeMillis();
-            long waitingTime = (waitingStopTime - waitingStartTime);
-            long executionStartTime = System.currentTimeMillis();
-            simulateLatency(80);
-            String cacheKey = "getPopulationofCountry_" + countryName;
-            synchronized (cache) {
-                if (cache.containsKey(cacheKey)) {
-                    long executionEndTime = System.currentTimeMillis();
-                    long executionTime = (executionEndTime - executionStartTime);
-                    return new long[] {cache.get(cacheKey), executionTime, waitingTime};
-                }
-            }
-            int populationSize = 0;
-            try (BufferedReader reader = new BufferedReader(new FileReader(dataSetFile))) {
-                String line;
-                reader.readLine();
-                while ((line = reader.readLine()) != null) {
-                    String[] data = line.split(";");
-                    String country = data[3].trim();
-                    if (country.equals(countryName)) {
-                        populationSize += Integer.parseInt(data[4]);
-                    }
-                } 
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            synchronized (cache) {
-                cache.put(cacheKey, populationSize);
-            }
-            long executionEndTime = System.currentTimeMillis();
-            long executionTime = (executionEndTime - executionStartTime);
-            return new long[] {populationSize, executionTime, waitingTime};
-        });
-
-        synchronized (taskQueue) {
-            taskQueue.add(futureTask);
-            taskQueue.notify();
-        }
-
-        try {
-            return futureTask.get();  // This will block until the FutureTask completes
-        } catch (InterruptedException | ExecutionException e) {
-            throw new RemoteException("Task execution failed", e);
-        }
+    public long[] getPopulationofCountry(String countryName, long deadlineMs) throws RemoteException {
+        int countryId = dataSet.getCountryId(countryName);
+        QueryKey cacheKey = QueryKey.populationOfCountry(countryId);
+        long[] cachedResult = answerFromCache(cacheKey);
+        if (cachedResult != null) return cachedResult;
+        return execute(cacheKey, deadlineMs, QueryCost.INDEX_LOOKUP, timing -> populationOfCountry(countryId, timing));
     }
 
     /**
      * Returns the number of cities in the given country with a population greater than or equal to the given minimum.
-     * The cache is checked for the result before the data set is searched. The server wraps the
-     * task in a FutureTask and adds it to a synchronized queue.
-     * The server then notifies the worker thread that there is a new task in the queue.
-     * The server then waits for the worker thread to complete the task and return the result.
+     * The result is looked up in the per-country population index and is not cached. The server wraps the
+     * task in a FutureTask and hands it to the task executor, unless the same query is already in flight.
+     * The server then waits for a worker to complete the task and return the result.
      * 
      * @param countryName the name of the country to retrieve the number of cities for
      * @param min the minimum population size of the cities
-     * @return an array of three long values representing the number of cities, the execution time, and the waiting time
+     * @param deadlineMs how long the caller waits for the result in milliseconds, 0 for no deadline
+     * @return the number of cities followed by the times described in Timing
      * @throws RemoteException if a remote communication error occurs
+     * @throws ServerOverloadedException if the query was rejected or shed, see execute
      */
     @Override
-    public long[] getNumberofCities(String countryName, int min) throws RemoteException {
-        long waitingStartTime = System.currentTimeMillis();
-        FutureTask<long[]> futureTask = new FutureTask<>(() -> {
-            long waitingStopTime = System.currentTimeMillis();
-            long waitingTime = (waitingStopTime - waitingStartTime);
-            long executionStartTime = System.currentTimeMillis();
-            simulateLatency(80);
-            String cacheKey = "getNumberOfCities_" + countryName + "_" + min;
-            synchronized (cache) {
-                if (cache.containsKey(cacheKey)) {
-                    long executionEndTime = System.currentTimeMillis();
-                    long executionTime = (executionEndTime - executionStartTime);
-                    return new long[] {cache.get(cacheKey), executionTime, waitingTime};
-                }
-            }
-            int cityCount = 0;
-            try (BufferedReader reader = new BufferedReader(new FileReader(dataSetFile))) {
-                String line;
-                reader.readLine(); 
-                while ((line = reader.readLine()) != null) {
-                    String[] data = line.split(";");
-                    if (data[3].trim().equals(countryName) && Integer.parseInt(data[4].trim()) >= min) {
-                        cityCount++;
-                    }
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            synchronized (cache) {
-                cache.put(cacheKey, cityCount);
-            }
-            long executionEndTime = System.currentTimeMillis();
-            long executionTime = (executionEndTime - executionStartTime);
-            return new long[] {cityCount, executionTime, waitingTime};
+    public long[] getNumberofCities(String countryName, int min, long deadlineMs) throws RemoteException {
+        int countryId = dataSet.getCountryId(countryName);
+        return execute(QueryKey.numberOfCities(countryId, min), deadlineMs, QueryCost.INDEX_LOOKUP, timing -> {
+            // The sorted index gives an exact answer for every min, so these results are not cached.
+            latencyModel.simulateExecution();
+            long computeStartTime = System.nanoTime();
+            int cityCount = populationIndex.countCitiesAtLeast(countryId, min);
+            timing[Timing.COMPUTE] = System.nanoTime() - computeStartTime;
+            return cityCount;
         });
-    
-        synchronized (taskQueue) {
-            taskQueue.add(futureTask);
-            taskQueue.notify();
-        }
-    
-        try {
-            return futureTask.get();  // This will block until the FutureTask completes
-        } catch (InterruptedException | ExecutionException e) {
-            throw new RemoteException("Task execution failed", e);
-        }
-
     }
 
     /**
      * Returns the number of countries with at least the given number of cities
      * and a population greater than or equal to the given minimum.
-     * The cache is checked for the result before the data set is searched. The server wraps the
-     * task in a FutureTask and adds it to a synchronized queue.
-     * The server then notifies the worker thread that there is a new task in the queue.
-     * The server then waits for the worker thread to complete the task and return the result.
+     * The result is looked up in the order statistics of the population index and is not cached. The server wraps the
+     * task in a FutureTask and hands it to the task executor, unless the same query is already in flight.
+     * The server then waits for a worker to complete the task and return the result.
      * 
      * @param citycount the minimum number of cities in a country
      * @param minpopulation the minimum population size of the cities
-     * @return an array of three long values representing the number of countries, the execution time, and the waiting time
+     * @param deadlineMs how long the caller waits for the result in milliseconds, 0 for no deadline
+     * @return the number of countries followed by the times described in Timing
      * @throws RemoteException if a remote communication error occurs
+     * @throws ServerOverloadedException if the query was rejected or shed, see execute
      */
     @Override
-    public long[] getNumberofCountries(int citycount, int minpopulation) throws RemoteException {
-        long waitingStartTime = System.currentTimeMillis();
-        FutureTask<long[]> futureTask = new FutureTask<>(() -> {
-            long waitingStopTime = System.currentTimeMillis();
-            long waitingTime = (waitingStopTime - waitingStartTime);
-            long executionStartTime = System.currentTimeMillis();
-            simulateLatency(80);
-            String cacheKey = "getNumberOfCountries_" + citycount + "_" + minpopulation;
-            synchronized (cache) {
-                if (cache.containsKey(cacheKey)) {
-                    long executionEndTime = System.currentTimeMillis();
-                    long executionTime = (executionEndTime - executionStartTime);
-                    return new long[] {cache.get(cacheKey), executionTime, waitingTime};
-                }
-            }
-            Map<String, Integer> countryCityCounts = new HashMap<>(); // Map to hold counts of cities for each country
-            try (BufferedReader reader = new BufferedReader(new FileReader(dataSetFile))) {
-                String line;
-                // Skip the header
-                reader.readLine();
-                while ((line = reader.readLine()) != null) {
-                    String[] parts = line.split(";");
-                    // Check if the 'Population' is greater than or equal to minPopulation
-                    if (Integer.parseInt(parts[4].trim()) >= minpopulation) {
-                        countryCityCounts.put(parts[3].trim(), countryCityCounts.getOrDefault(parts[3].trim(), 0) + 1);
-                    }
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            // Now, filter out the countries with cities count greater than or equal to cityCount
-            int result = (int) countryCityCounts.values().stream().filter(count -> count >= citycount).count();
-            synchronized (cache) {
-                cache.put(cacheKey, result);
-            }
-            long executionEndTime = System.currentTimeMillis();
-            long executionTime = (executionEndTime - executionStartTime);
-            return new long[] {result, executionTime, waitingTime};
+    public long[] getNumberofCountries(int citycount, int minpopulation, long deadlineMs) throws RemoteException {
+        return execute(QueryKey.numberOfCountries(citycount, minpopulation), deadlineMs, QueryCost.INDEX_LOOKUP, timing -> {
+            // The order statistic index gives an exact answer in one binary search, so these results are not cached.
+            latencyModel.simulateExecution();
+            long computeStartTime = System.nanoTime();
+            int result = populationIndex.countCountriesAtLeast(citycount, minpopulation);
+            timing[Timing.COMPUTE] = System.nanoTime() - computeStartTime;
+            return result;
         });
-
-        synchronized (taskQueue) {
-            taskQueue.add(futureTask);
-            taskQueue.notify();
-        }
-
-        try {
-            return futureTask.get();  // This will block until the FutureTask completes
-        } catch (InterruptedException | ExecutionException e) {
-            throw new RemoteException("Task execution failed", e);
-        }
     }
 
     /**
      * Returns the number of countries with at least the given number of cities
      * and a population greater than or equal to the given minimum and less than or equal to the given maximum.
-     * The cache is checked for the result before the data set is searched. The server wraps the
-     * task in a FutureTask and adds it to a synchronized queue.
-     * The server then notifies the worker thread that there is a new task in the queue.
-     * The server then waits for the worker thread to complete the task and return the result.
+     * The cache is checked for the result before the task is queued, so a cache hit never waits. Otherwise the server wraps the
+     * task in a FutureTask and hands it to the task executor, unless the same query is already in flight.
+     * The server then waits for a worker to complete the task and return the result.
      * 
      * @param citycount the minimum number of cities in a country
      * @param minpopulation the minimum population size of the cities
      * @param maxpopulation the maximum population size of the cities
-     * @return an array of three long values representing the number of countries, the execution time, and the waiting time
+     * @param deadlineMs how long the caller waits for the result in milliseconds, 0 for no deadline
+     * @return the number of countries followed by the times described in Timing
      * @throws RemoteException if a remote communication error occurs
+     * @throws ServerOverloadedException if the query was rejected or shed, see execute
      */
     @Override
-    public long[] getNumberofCountries(int citycount, int minpopulation, int maxpopulation) throws RemoteException {
-        long waitingStartTime = System.currentTimeMillis();
+    public long[] getNumberofCountries(int citycount, int minpopulation, int maxpopulation, long deadlineMs) throws RemoteException {
+        QueryKey cacheKey = QueryKey.numberOfCountries(citycount, minpopulation, maxpopulation);
+        long[] cachedResult = answerFromCache(cacheKey);
+        if (cachedResult != null) return cachedResult;
+        return execute(cacheKey, deadlineMs, QueryCost.AGGREGATION, timing -> numberOfCountriesInRange(cacheKey, timing));
+    }
+
+    /**
+     * Runs the query on the task executor and waits for the result. If a query with the same key is
+     * already queued or executing, the caller attaches to that task instead of submitting a new one,
+     * and gets the same result, including its execution and waiting time.
+     *
+     * A new query is only admitted if the task executor expects it to complete before its deadline, see
+     * TaskExecutor.tryExecute, and the callers that attached to a rejected query are rejected with it. A
+     * query that a worker gets to too late to complete before its deadline, the latest of its attached
+     * callers, is shed without being executed, and a caller stops waiting at its deadline.
+     *
+     * @param key the key identifying the query and its parameters
+     * @param deadlineMs how long the caller waits for the result in milliseconds, 0 for no deadline
+     * @param cost the expected cost of the query, which decides its place in the queue
+     * @param query computes the result and records its cache probe and compute times in the given array,
+     *        simulating the execution delay unless the result is cached
+     * @return the result followed by the times described in Timing
+     * @throws RemoteException if the task fails or the caller is interrupted
+     * @throws ServerOverloadedException if the query was rejected or shed, or the deadline passed
+     */
+    private long[] execute(QueryKey key, long deadlineMs, QueryCost cost, ToLongFunction<long[]> query) throws RemoteException {
+        long waitingStartTime = System.nanoTime();
+        long deadline = deadline(waitingStartTime, deadlineMs);
+        AtomicLong latestDeadline = new AtomicLong(deadline);
+        AtomicBoolean rejected = new AtomicBoolean();
         FutureTask<long[]> futureTask = new FutureTask<>(() -> {
-            long waitingStopTime = System.currentTimeMillis();
-            long waitingTime = (waitingStopTime - waitingStartTime);
-            long executionStartTime = System.currentTimeMillis();
-            simulateLatency(80);
-            String cacheKey = "getNumberOfCountries_" + citycount + "_" + minpopulation + "_" + maxpopulation;
-            synchronized (cache) {
-                if (cache.containsKey(cacheKey)) {
-                    long executionEndTime = System.currentTimeMillis();
-                    long executionTime = (executionEndTime - executionStartTime);
-                    return new long[] {cache.get(cacheKey), executionTime, waitingTime};
+            if (rejected.get()) throw new ServerOverloadedException("Server is overloaded");
+            long executionStartTime = System.nanoTime();
+            if (executionStartTime + taskExecutor.getServiceTimeNanos(cost) > latestDeadline.get()) {
+                throw new ServerOverloadedException("Deadline passes before the query would complete");
+            }
+            long[] timing = new long[Timing.LENGTH];
+            timing[Timing.WAITING] = executionStartTime - waitingStartTime;
+            timing[Timing.RESULT] = query.applyAsLong(timing);
+            taskExecutor.recordComputeTime(cost, timing[Timing.COMPUTE]);
+            long executionEndTime = System.nanoTime();
+            timing[Timing.EXECUTION] = executionEndTime - executionStartTime;
+            timing[Timing.HAND_OFF] = executionEndTime; // Replaced by the hand off time in handOff
+            return timing;
+        });
+        PendingQuery pending = new PendingQuery(futureTask, latestDeadline);
+        PendingQuery inFlightQuery = inFlight.putIfAbsent(key, pending);
+        if (inFlightQuery != null) {
+            inFlightQuery.deadline().accumulateAndGet(deadline, Math::max);
+            futureTask = inFlightQuery.task();
+        } else {
+            boolean admitted = taskExecutor.tryExecute(() -> {
+                try {
+                    pending.task().run();
+                } finally {
+                    inFlight.remove(key, pending);
+                }
+            }, cost, deadline);
+            if (!admitted) {
+                // Callers may have attached in the meantime, completing the task rejects them as well
+                rejected.set(true);
+                pending.task().run();
+                inFlight.remove(key, pending);
+                throw new ServerOverloadedException("Server is overloaded");
+            }
+        }
+
+        return handOff(await(futureTask, deadline));
+    }
+
+    /**
+     * Executes a batch of queries as a single task, so the batch waits in the queue once.
+     * The population and city queries are looked up one by one and all range queries that
+     * are not cached are answered together in one pass over the population index.
+     * The batch is admitted and shed as a whole, like a single query in execute, and queued with the
+     * highest cost of its queries. A batch whose results are all cached is run right away without queuing.
+     *
+     * @param queries the queries to execute
+     * @param deadlineMs how long the caller waits for the result in milliseconds, 0 for no deadline
+     * @return for each query the result followed by the times described in Timing
+     * @throws RemoteException if a remote communication error occurs
+     * @throws ServerOverloadedException if the batch was rejected or shed, or the deadline passed
+     */
+    @Override
+    public List<long[]> executeBatch(List<Query> queries, long deadlineMs) throws RemoteException {
+        long waitingStartTime = System.nanoTime();
+        long deadline = deadline(waitingStartTime, deadlineMs);
+        QueryCost cost = classify(queries);
+        FutureTask<long[][]> futureTask = new FutureTask<>(() -> {
+            long batchStartTime = System.nanoTime();
+            if (cost != QueryCost.CACHE_HIT && batchStartTime + taskExecutor.getServiceTimeNanos(cost) > deadline) {
+                throw new ServerOverloadedException("Deadline passes before the batch would complete");
+            }
+            long waitingTime = (batchStartTime - waitingStartTime);
+            long[][] results = new long[queries.size()][];
+            List<Integer> rangeQueries = new ArrayList<>();
+            boolean computed = false;
+            long batchComputeTime = 0;
+            for (int i = 0; i < results.length; i++) {
+                Query query = queries.get(i);
+                long[] timing = new long[Timing.LENGTH];
+                timing[Timing.WAITING] = waitingTime;
+                results[i] = timing;
+                long executionStartTime = System.nanoTime();
+                switch (query.type()) {
+                    case POPULATION_OF_COUNTRY:
+                        int countryId = dataSet.getCountryId(query.countryName());
+                        if (countryId < 0) break;
+                        QueryKey cacheKey = QueryKey.populationOfCountry(countryId);
+                        long cachedPopulation = probe(cacheKey, true, timing);
+                        if (cachedPopulation != ServerCache.MISS) {
+                            timing[Timing.RESULT] = cachedPopulation;
+                            break;
+                        }
+                        timing[Timing.RESULT] = computePopulationOfCountry(countryId, cacheKey, timing);
+                        computed = true;
+                        break;
+                    case NUMBER_OF_CITIES:
+                        timing[Timing.RESULT] = populationIndex.countCitiesAtLeast(dataSet.getCountryId(query.countryName()), query.first());
+                        timing[Timing.COMPUTE] = System.nanoTime() - executionStartTime;
+                        computed = true;
+                        break;
+                    case NUMBER_OF_COUNTRIES:
+                        timing[Timing.RESULT] = populationIndex.countCountriesAtLeast(query.first(), query.second());
+                        timing[Timing.COMPUTE] = System.nanoTime() - executionStartTime;
+                        computed = true;
+                        break;
+                    default:
+                        long cachedResult = probe(QueryKey.numberOfCountries(query.first(), query.second(), query.third()), true, timing);
+                        if (cachedResult == ServerCache.MISS) {
+                            rangeQueries.add(i);
+                            continue;
+                        }
+                        timing[Timing.RESULT] = cachedResult;
                 }
+                timing[Timing.EXECUTION] = System.nanoTime() - executionStartTime;
+                batchComputeTime += timing[Timing.COMPUTE];
             }
-            Map<String, Integer> countryCityCounts = new HashMap<>(); // Map to hold counts of cities for each country
-            try (BufferedReader reader = new BufferedReader(new FileReader(dataSetFile))) {
-                String line;
-                // Skip the header
-                reader.readLine();
-                while ((line = reader.readLine()) != null) {
-                    String[] parts = line.split(";");
-                    // Check if the 'Population' is greater than or equal to minPopulation
-                    int cityPopulation = Integer.parseInt(parts[4].trim());
-                    if (cityPopulation >= minpopulation && cityPopulation <= maxpopulation) {
-                        countryCityCounts.put(parts[3].trim(), countryCityCounts.getOrDefault(parts[3].trim(), 0) + 1);
-                    }
+
+            if (!rangeQueries.isEmpty()) {
+                long computeStartTime = System.nanoTime();
+                int[] citycounts = new int[rangeQueries.size()];
+                int[] mins = new int[rangeQueries.size()];
+                int[] maxs = new int[rangeQueries.size()];
+                for (int j = 0; j < citycounts.length; j++) {
+                    Query query = queries.get(rangeQueries.get(j));
+                    citycounts[j] = query.first();
+                    mins[j] = query.second();
+                    maxs[j] = query.third();
+                }
+                int[] counts = populationIndex.countCountriesInRange(citycounts, mins, maxs);
+                for (int j = 0; j < counts.length; j++) {
+                    store(QueryKey.numberOfCountries(citycounts[j], mins[j], maxs[j]), counts[j]);
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
+                long computeTime = System.nanoTime() - computeStartTime;
+                for (int j = 0; j < counts.length; j++) {
+                    long[] timing = results[rangeQueries.get(j)];
+                    timing[Timing.RESULT] = counts[j];
+                    timing[Timing.COMPUTE] = computeTime;
+                    timing[Timing.EXECUTION] = timing[Timing.CACHE_PROBE] + computeTime;
+                }
+                batchComputeTime += computeTime;
+                computed = true;
             }
-            int result = (int) countryCityCounts.values().stream().filter(count -> count >= citycount).count();
-            
-            synchronized (cache) {
-                cache.put(cacheKey, result);
+            taskExecutor.recordComputeTime(cost, batchComputeTime);
+
+            // The batch is one task, so it simulates the execution delay once, and only if a result was computed.
+            long latencyStartTime = System.nanoTime();
+            if (computed) latencyModel.simulateExecution();
+            long executionEndTime = System.nanoTime();
+            long latencyTime = executionEndTime - latencyStartTime;
+            for (long[] timing : results) {
+                timing[Timing.EXECUTION] += latencyTime;
+                timing[Timing.HAND_OFF] = executionEndTime; // Replaced by the hand off time in handOff
             }
-            long executionEndTime = System.currentTimeMillis();
-            long executionTime = (executionEndTime - executionStartTime);
-            return new long[] {result, executionTime, waitingTime};
+            return results;
         });
 
-        synchronized (taskQueue) {
-            taskQueue.add(futureTask);
-            taskQueue.notify();
+        if (cost == QueryCost.CACHE_HIT) {
+            futureTask.run();
+        } else if (!taskExecutor.tryExecute(futureTask, cost, deadline)) {
+            throw new ServerOverloadedException("Server is overloaded");
         }
+        long[][] results = await(futureTask, deadline);
+        List<long[]> handedOff = new ArrayList<>(results.length);
+        for (long[] timing : results) handedOff.add(handOff(timing));
+        return handedOff;
+    }
 
-        try {
-            return futureTask.get();  // This will block until the FutureTask completes
-        } catch (InterruptedException | ExecutionException e) {
-            throw new RemoteException("Task execution failed", e);
+    /*
+     * Returns the population of the country, from the cache if it was cached while the query was queued.
+     * Unknown countries have no population and are not cached.
+     */
+    private long populationOfCountry(int countryId, long[] timing) {
+        if (countryId < 0) return 0;
+        QueryKey cacheKey = QueryKey.populationOfCountry(countryId);
+        long cachedResult = probe(cacheKey, false, timing);
+        if (cachedResult != ServerCache.MISS) return cachedResult;
+        latencyModel.simulateExecution();
+        return computePopulationOfCountry(countryId, cacheKey, timing);
+    }
+
+    /*
+     * Returns the result of a getNumberofCountries range query, from the cache if it was cached while
+     * the query was queued.
+     */
+    private long numberOfCountriesInRange(QueryKey cacheKey, long[] timing) {
+        long cachedResult = probe(cacheKey, false, timing);
+        if (cachedResult != ServerCache.MISS) return cachedResult;
+        latencyModel.simulateExecution();
+        long computeStartTime = System.nanoTime();
+        long result = populationIndex.countCountriesInRange(cacheKey.first(), cacheKey.second(), cacheKey.third());
+        store(cacheKey, result);
+        timing[Timing.COMPUTE] = System.nanoTime() - computeStartTime;
+        return result;
+    }
+
+    /*
+     * Returns the result of a cached query without queuing it, or null if it is not cached. This is the
+     * counted lookup of the query, the task of a miss looks again without counting.
+     */
+    private long[] answerFromCache(QueryKey cacheKey) {
+        long probeStartTime = System.nanoTime();
+        long cachedResult = cache.get(cacheKey);
+        long probeEndTime = System.nanoTime();
+        if (cachedResult == ServerCache.MISS) return null;
+        long[] timing = new long[Timing.LENGTH];
+        timing[Timing.RESULT] = cachedResult;
+        timing[Timing.CACHE_PROBE] = probeEndTime - probeStartTime;
+        timing[Timing.EXECUTION] = probeEndTime - probeStartTime;
+        timing[Timing.HAND_OFF] = probeEndTime; // Replaced by the hand off time in handOff
+        return handOff(timing);
+    }
+
+    /*
+     * Returns the expected cost of a batch: the highest cost of its queries, where a query with a
+     * cached result costs a cache hit.
+     */
+    private QueryCost classify(List<Query> queries) {
+        QueryCost cost = QueryCost.CACHE_HIT;
+        for (Query query : queries) {
+            QueryCost queryCost;
+            switch (query.type()) {
+                case POPULATION_OF_COUNTRY:
+                    QueryKey cacheKey = QueryKey.populationOfCountry(dataSet.getCountryId(query.countryName()));
+                    queryCost = cache.peek(cacheKey) == ServerCache.MISS ? QueryCost.INDEX_LOOKUP : QueryCost.CACHE_HIT;
+                    break;
+                case NUMBER_OF_COUNTRIES_IN_RANGE:
+                    QueryKey rangeKey = QueryKey.numberOfCountries(query.first(), query.second(), query.third());
+                    queryCost = cache.peek(rangeKey) == ServerCache.MISS ? QueryCost.AGGREGATION : QueryCost.CACHE_HIT;
+                    break;
+                default:
+                    queryCost = QueryCost.INDEX_LOOKUP;
+            }
+            if (queryCost.compareTo(cost) > 0) cost = queryCost;
         }
+        return cost;
     }
 
     /*
-    * Simulates latency by sleeping for the specified number of milliseconds.
-    */
-    private void simulateLatency(int millis) {
+     * Returns the cached result for the key, or MISS, and records the time of the lookup. On a local
+     * miss the peer cache is asked, and a peer hit is cached locally. A lookup that repeats a counted
+     * one, in the task of a query that missed before it was queued, is not counted again.
+     */
+    private long probe(QueryKey cacheKey, boolean counted, long[] timing) {
+        long probeStartTime = System.nanoTime();
+        long cachedResult = counted ? cache.get(cacheKey) : cache.peek(cacheKey);
+        PeerCache peers = peerCache;
+        if (cachedResult == ServerCache.MISS && peers != null) {
+            cachedResult = peers.lookup(cacheKey);
+            if (cachedResult != ServerCache.MISS) cache.put(cacheKey, cachedResult);
+        }
+        timing[Timing.CACHE_PROBE] = System.nanoTime() - probeStartTime;
+        return cachedResult;
+    }
+
+    /*
+     * Caches a computed result and shares it with the peers.
+     */
+    private void store(QueryKey cacheKey, long result) {
+        cache.put(cacheKey, result);
+        PeerCache peers = peerCache;
+        if (peers != null) peers.publish(cacheKey, result);
+    }
+
+    /*
+     * Sums the population of the country, caches it and records the time of the computation.
+     */
+    private long computePopulationOfCountry(int countryId, QueryKey cacheKey, long[] timing) {
+        long computeStartTime = System.nanoTime();
+        long populationSize = dataSet.getPopulationOfCountry(countryId);
+        store(cacheKey, populationSize);
+        timing[Timing.COMPUTE] = System.nanoTime() - computeStartTime;
+        return populationSize;
+    }
+
+    /*
+     * Copies the result for the caller, so callers of a coalesced query do not share an array, and
+     * replaces the completion time in the HAND_OFF slot by the time from completion until now.
+     */
+    private static long[] handOff(long[] timing) {
+        long[] result = timing.clone();
+        result[Timing.HAND_OFF] = System.nanoTime() - timing[Timing.HAND_OFF];
+        return result;
+    }
+
+    /*
+     * Returns the System.nanoTime() deadline of a caller that waits deadlineMs from the given time,
+     * or Long.MAX_VALUE if deadlineMs is 0.
+     */
+    private static long deadline(long startTime, long deadlineMs) {
+        return deadlineMs <= 0 ? Long.MAX_VALUE : startTime + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+    }
+
+    /*
+     * Waits until the task completes or the deadline passes and returns its result.
+     * A task that was shed is reported to the caller as ServerOverloadedException.
+     */
+    private static <T> T await(FutureTask<T> futureTask, long deadline) throws RemoteException {
         try {
-            Thread.sleep(millis);
+            if (deadline == Long.MAX_VALUE) return futureTask.get();  // This will block until the FutureTask completes
+            return futureTask.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new ServerOverloadedException("Deadline passed before the result was ready");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ServerOverloadedException) throw new ServerOverloadedException(e.getCause().getMessage());
+            throw new RemoteException("Task execution failed", e);
         } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+            throw new RemoteException("Task execution failed", e);
         }
     }
 
+    /*
+     * A queued or executing query and the latest deadline of the callers attached to it, so the
+     * query is only shed when all of them have given up.
+     */
+    private record PendingQuery(FutureTask<long[]> task, AtomicLong deadline) {
+    }
+
     public static void main(String[] args) {
         try {
             Server obj = new Server();
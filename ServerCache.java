@@ -0,0 +1,250 @@
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * ServerCache
+ * Concurrent LRU cache for the query results of a server. The keys are spread over a number of
+ * segments, each with its own lock, so workers only contend when they touch the same segment.
+ * Every segment evicts its own least recently used entry when it is full.
+ *
+ * A segment is an open addressing hash table over fixed arrays with the LRU order kept as index
+ * links, and results are stored as primitive longs, so neither a hit nor a put allocates.
+ *
+ * The maximum size is read from the system property server.cacheSize (default 150).
+ */
+public class ServerCache {
+
+    /** Returned by get when the key is not cached. */
+    public static final long MISS = Long.MIN_VALUE;
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Segment[] segments;
+    private final int maxSize;
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Creates a cache that holds at most maxSize entries in total.
+     *
+     * @param maxSize the maximum number of cached results
+     */
+    public ServerCache(int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        int segmentCount = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, this.maxSize)));
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            int capacity = this.maxSize / segmentCount + (i < this.maxSize % segmentCount ? 1 : 0);
+            segments[i] = new Segment(capacity);
+        }
+    }
+
+    /**
+     * Creates a cache with the size given by the server.cacheSize system property.
+     */
+    public static ServerCache fromSystemProperties() {
+        return new ServerCache(Integer.getInteger("server.cacheSize", 150));
+    }
+
+    /**
+     * Returns the cached result for the key, or MISS if it is not cached.
+     */
+    public long get(QueryKey key) {
+        int hash = key.hashCode();
+        Segment segment = segmentFor(hash);
+        long value;
+        synchronized (segment) {
+            value = segment.get(key, hash);
+        }
+        lookups.increment();
+        if (value != MISS) hits.increment();
+        return value;
+    }
+
+    /**
+     * Returns the cached result for the key, or MISS if it is not cached, without counting the lookup
+     * or marking the entry as recently used, e.g. to classify a query before it is queued.
+     */
+    public long peek(QueryKey key) {
+        int hash = key.hashCode();
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            int slot = segment.find(key, hash);
+            return slot == -1 ? MISS : segment.values[slot];
+        }
+    }
+
+    /**
+     * Caches the result for the key, evicting the least recently used entry of its segment if needed.
+     */
+    public void put(QueryKey key, long value) {
+        int hash = key.hashCode();
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            segment.put(key, hash, value);
+        }
+    }
+
+    /**
+     * Returns a copy of the cached entries with the keys rendered as strings, least recently used first
+     * within each segment. Only one segment is locked at a time, so lookups in the other segments are
+     * never blocked by a snapshot.
+     *
+     * @param keyRenderer renders a key as a string
+     * @return the cached entries
+     */
+    public LinkedHashMap<String, Long> snapshot(Function<QueryKey, String> keyRenderer) {
+        LinkedHashMap<String, Long> snapshot = new LinkedHashMap<>();
+        for (Segment segment : segments) {
+            QueryKey[] keys;
+            long[] values;
+            synchronized (segment) {
+                keys = new QueryKey[segment.size];
+                values = new long[segment.size];
+                int i = 0;
+                for (int slot = segment.tail; slot != -1; slot = segment.prev[slot], i++) {
+                    keys[i] = segment.keys[slot];
+                    values[i] = segment.values[slot];
+                }
+            }
+            for (int i = 0; i < keys.length; i++) snapshot.put(keyRenderer.apply(keys[i]), values[i]);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the number of lookups since the cache was created.
+     */
+    public long getLookupCount() {
+        return lookups.sum();
+    }
+
+    /**
+     * Returns the number of lookups that found a cached result since the cache was created.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the maximum number of entries the cache can hold.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[hash & (segments.length - 1)];
+    }
+
+    /*
+     * One segment of the cache. The entries live in slots 0..capacity-1 and the hash table maps a
+     * hash bucket to slot + 1 (0 marks an empty bucket). prev and next link the slots from the most
+     * recently used (head) to the least recently used (tail) entry. Not thread safe on its own.
+     */
+    private static class Segment {
+        private final QueryKey[] keys;
+        private final long[] values;
+        private final int[] hashes;
+        private final int[] prev;
+        private final int[] next;
+        private final int[] table;
+        private final int mask;
+        private int size;
+        private int head = -1;
+        private int tail = -1;
+
+        Segment(int capacity) {
+            keys = new QueryKey[capacity];
+            values = new long[capacity];
+            hashes = new int[capacity];
+            prev = new int[capacity];
+            next = new int[capacity];
+            table = new int[Integer.highestOneBit(Math.max(1, capacity) * 2) * 2];
+            mask = table.length - 1;
+        }
+
+        long get(QueryKey key, int hash) {
+            int slot = find(key, hash);
+            if (slot == -1) return MISS;
+            moveToHead(slot);
+            return values[slot];
+        }
+
+        void put(QueryKey key, int hash, long value) {
+            if (keys.length == 0) return;
+            int slot = find(key, hash);
+            if (slot != -1) {
+                values[slot] = value;
+                moveToHead(slot);
+                return;
+            }
+            if (size < keys.length) {
+                slot = size++;
+            } else {
+                slot = tail;
+                removeFromTable(slot);
+                unlink(slot);
+            }
+            keys[slot] = key;
+            hashes[slot] = hash;
+            values[slot] = value;
+            int bucket = bucketOf(hash);
+            while (table[bucket] != 0) bucket = (bucket + 1) & mask;
+            table[bucket] = slot + 1;
+            linkAtHead(slot);
+        }
+
+        private int find(QueryKey key, int hash) {
+            for (int bucket = bucketOf(hash); table[bucket] != 0; bucket = (bucket + 1) & mask) {
+                int slot = table[bucket] - 1;
+                if (hashes[slot] == hash && keys[slot].equals(key)) return slot;
+            }
+            return -1;
+        }
+
+        /*
+         * Removes the bucket of the slot and shifts the following entries of the probe run back,
+         * so lookups never stop early at the freed bucket.
+         */
+        private void removeFromTable(int slot) {
+            int bucket = bucketOf(hashes[slot]);
+            while (table[bucket] != slot + 1) bucket = (bucket + 1) & mask;
+            int free = bucket;
+            for (int current = (free + 1) & mask; table[current] != 0; current = (current + 1) & mask) {
+                int home = bucketOf(hashes[table[current] - 1]);
+                if (((current - home) & mask) >= ((current - free) & mask)) {
+                    table[free] = table[current];
+                    free = current;
+                }
+            }
+            table[free] = 0;
+        }
+
+        private int bucketOf(int hash) {
+            return (hash >>> 4) & mask;
+        }
+
+        private void moveToHead(int slot) {
+            if (slot == head) return;
+            unlink(slot);
+            linkAtHead(slot);
+        }
+
+        private void linkAtHead(int slot) {
+            prev[slot] = -1;
+            next[slot] = head;
+            if (head != -1) prev[head] = slot;
+            head = slot;
+            if (tail == -1) tail = slot;
+        }
+
+        private void unlink(int slot) {
+            if (prev[slot] != -1) next[prev[slot]] = next[slot];
+            else head = next[slot];
+            if (next[slot] != -1) prev[next[slot]] = prev[slot];
+            else tail = prev[slot];
+        }
+    }
+}
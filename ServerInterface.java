@@ -1,13 +1,18 @@
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.LinkedHashMap;
+import java.util.List;
 
 // Definerer et Java-grensesnitt kalt StatisticsInterface som utvider Remote-grensesnittet.
 public interface ServerInterface extends Remote {
     int getTaskQueueSize() throws RemoteException;
-    long[] getPopulationofCountry(String countryName) throws RemoteException; // Metode for å hente befolkningen til et land basert på landets navn.
-    long[] getNumberofCities(String countryName, int min) throws RemoteException;     // Metode for å hente antallet byer i et land som har minst et gitt antall innbyggere.
-    long[] getNumberofCountries(int citycount, int minpopulation) throws RemoteException; // Metode for å hente antallet land som har minst et visst antall byer og minst en viss befolkning.
-    long[] getNumberofCountries(int citycount, int minpopulation, int maxpopulation) throws RemoteException; // Metode for å hente antallet land som har minst et visst antall byer og en befolkning innenfor et gitt område.
-    LinkedHashMap<String, Integer> getServerCache() throws RemoteException;
+    long[] getCacheCounts() throws RemoteException; // Metode for å hente antall oppslag og treff i hurtigbufferen.
+    long[] getPopulationofCountry(String countryName, long deadlineMs) throws RemoteException; // Metode for å hente befolkningen til et land basert på landets navn.
+    long[] getNumberofCities(String countryName, int min, long deadlineMs) throws RemoteException;     // Metode for å hente antallet byer i et land som har minst et gitt antall innbyggere.
+    long[] getNumberofCountries(int citycount, int minpopulation, long deadlineMs) throws RemoteException; // Metode for å hente antallet land som har minst et visst antall byer og minst en viss befolkning.
+    long[] getNumberofCountries(int citycount, int minpopulation, int maxpopulation, long deadlineMs) throws RemoteException; // Metode for å hente antallet land som har minst et visst antall byer og en befolkning innenfor et gitt område.
+    List<long[]> executeBatch(List<Query> queries, long deadlineMs) throws RemoteException; // Metode for å utføre flere spørringer i én forespørsel.
+    LinkedHashMap<String, Long> getServerCache() throws RemoteException;
+    long getCachedResult(QueryKey key) throws RemoteException; // Metode for å hente et bufret resultat for en annen server.
+    void putCachedResult(QueryKey key, long value) throws RemoteException; // Metode for å lagre et resultat som en annen server har beregnet.
 }
@@ -0,0 +1,86 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ServerNode
+ * The proxy's view of one server: its registry name, its zone and an estimate of its load.
+ * The proxy does not see when a query completes, so the load is the queue size last reported by
+ * the server plus the queries the proxy has assigned to the server since that report.
+ *
+ * The servers push their load, see LoadReporter. The last report is kept as an immutable snapshot
+ * in a volatile field and the assignments in a LongAdder, so concurrent assignments to the same server
+ * do not contend on one counter and reading the state never locks.
+ */
+public class ServerNode {
+
+    private final String registryName;
+    private final int zone;
+    private volatile LoadReport lastReport; // Null until the server has reported
+    private final LongAdder assignedSinceReport = new LongAdder();
+
+    /**
+     * Creates the node of the server in the given zone, bound as "server" + zone.
+     *
+     * @param zone the zone of the server, 1 to 5
+     */
+    public ServerNode(int zone) {
+        this.zone = zone;
+        this.registryName = "server" + zone;
+    }
+
+    /**
+     * Returns the registry name of the server.
+     */
+    public String getRegistryName() {
+        return registryName;
+    }
+
+    /**
+     * Returns the zone of the server.
+     */
+    public int getZone() {
+        return zone;
+    }
+
+    /**
+     * Returns the estimated number of queued queries: the last reported queue size plus the
+     * queries assigned since that report.
+     */
+    public int getLoad() {
+        LoadReport report = lastReport;
+        return (report == null ? 0 : report.queueSize()) + (int) assignedSinceReport.sum();
+    }
+
+    /**
+     * Returns whether the server reported in its last report that it is turning queries away.
+     */
+    public boolean isOverloaded() {
+        LoadReport report = lastReport;
+        return report != null && report.overloaded();
+    }
+
+    /**
+     * Returns the last load report of the server, or null if it has not reported yet.
+     */
+    public LoadReport getLastReport() {
+        return lastReport;
+    }
+
+    /**
+     * Counts a query assigned to the server.
+     */
+    public void assign() {
+        assignedSinceReport.increment();
+    }
+
+    /**
+     * Stores a load report of the server. The queries assigned until now are taken to be part
+     * of it, so only the ones assigned from now on are counted on top of it.
+     *
+     * @param report the load report
+     */
+    public void report(LoadReport report) {
+        long assigned = assignedSinceReport.sum();
+        lastReport = report;
+        assignedSinceReport.add(-assigned);
+    }
+}
@@ -0,0 +1,22 @@
+/**
+ * ServerOverloadedException
+ * Thrown by a server that did not run a query because it is overloaded: its queue was full, the
+ * expected queue time was longer than the deadline of the query, or the deadline passed before a worker
+ * got to the query. The query was not executed, so the caller can safely send it to another server.
+ *
+ * It is unchecked, so RMI hands it to the caller unchanged instead of wrapping it in a ServerException,
+ * and StubCache does not retry it on the same server.
+ */
+public class ServerOverloadedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates the exception.
+     *
+     * @param message why the query was rejected
+     */
+    public ServerOverloadedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,103 @@
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.UnmarshalException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * StubCache
+ * Resolves remote stubs, such as Proxy and server1..server5, from the RMI registry once and reuses them.
+ * A stub is only looked up again after a call through it failed because the remote object could not be
+ * reached, or after a lookup failed with a NotBoundException.
+ */
+public class StubCache {
+
+    /**
+     * A remote call made through a stub.
+     */
+    @FunctionalInterface
+    public interface RemoteCall<T extends Remote, R> {
+        R invoke(T stub) throws RemoteException;
+    }
+
+    private final ConcurrentHashMap<String, Remote> stubs = new ConcurrentHashMap<>();
+    private volatile Registry registry;
+
+    /**
+     * Returns the stub bound to the name, looking it up in the registry if it is not cached.
+     *
+     * @param name the registry name
+     * @return the stub
+     * @throws RemoteException if the registry cannot be reached
+     * @throws NotBoundException if nothing is bound to the name
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Remote> T lookup(String name) throws RemoteException, NotBoundException {
+        Remote stub = stubs.get(name);
+        if (stub == null) {
+            try {
+                stub = getRegistry().lookup(name);
+            } catch (RemoteException e) {
+                registry = null;
+                throw e;
+            }
+            stubs.put(name, stub);
+        }
+        return (T) stub;
+    }
+
+    /**
+     * Removes the stub from the cache, so the next call looks it up again.
+     *
+     * @param name the registry name
+     */
+    public void invalidate(String name) {
+        stubs.remove(name);
+    }
+
+    /**
+     * Invokes the call on the cached stub. If the call fails because the stub is stale or the remote
+     * object cannot be reached, see isStale, the stub is looked up again and the call is retried once.
+     * Any other failure, such as a ServerException or ServerError thrown by the remote method itself,
+     * is passed on unchanged and the stub is kept.
+     *
+     * @param name the registry name of the stub
+     * @param call the remote call
+     * @return the result of the call
+     * @throws RemoteException if the remote method failed, or the retried call fails as well
+     * @throws NotBoundException if nothing is bound to the name
+     */
+    public <T extends Remote, R> R call(String name, RemoteCall<T, R> call) throws RemoteException, NotBoundException {
+        T stub = lookup(name);
+        try {
+            return call.invoke(stub);
+        } catch (RemoteException e) {
+            if (!isStale(e)) throw e;
+            stubs.remove(name, stub);
+            return call.invoke(lookup(name));
+        }
+    }
+
+    /*
+     * Returns whether the call failed in the transport rather than in the remote method: the
+     * connection could not be opened or broke off, or the remote object is no longer exported.
+     */
+    private static boolean isStale(RemoteException e) {
+        return e instanceof ConnectException || e instanceof ConnectIOException
+                || e instanceof NoSuchObjectException || e instanceof UnmarshalException;
+    }
+
+    private Registry getRegistry() throws RemoteException {
+        Registry current = registry;
+        if (current == null) {
+            current = LocateRegistry.getRegistry();
+            registry = current;
+        }
+        return current;
+    }
+}
@@ -0,0 +1,265 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TaskExecutor
+ * Runs the tasks of a server. The execution mode is chosen with the system property server.executor:
+ * "pool" (default) runs the tasks on a fixed number of worker threads given by server.workers
+ * (default the number of cores), "virtual" starts one virtual thread per task. Virtual threads need
+ * Java 21, on older runtimes the pool is used instead.
+ *
+ * Every task comes with its expected cost, see QueryCost. With server.scheduler "priority" (default) the
+ * pool runs the waiting tasks in the order of their submit time plus AGING_WEIGHT times the average
+ * compute time of their cost class, so cheap tasks overtake expensive ones. The compute time is the work
+ * on the data set that the server reports with recordComputeTime, without the simulated execution
+ * delay, which is the same for every class and would hide the difference. A microsecond of compute time
+ * holds a task back by AGING_WEIGHT microseconds, at most MAX_HOLD_BACK_NANOS, so an expensive task is
+ * never overtaken by a task submitted more than a second after it. With "fifo" the tasks run in the
+ * order they were submitted. Virtual threads do not queue tasks.
+ *
+ * The queue size is the number of tasks that have been submitted but not yet started, in both modes.
+ * The executor also counts the tasks in flight and keeps moving averages of their queue and execution time.
+ *
+ * Tasks with a deadline are admitted with tryExecute, which rejects a task when server.queueLimit
+ * (default 128) tasks are already waiting, or when the task is not expected to complete before its
+ * deadline, so an overloaded server turns work away instead of queuing it. The expected queue time is the
+ * lower of the moving average of the queue time and the time the workers need for the waiting tasks at
+ * the average service time, so a queue that drains admits tasks again before the average has caught up.
+ */
+public class TaskExecutor {
+
+    private static final int AGING_WEIGHT = 10_000;
+    private static final long MAX_HOLD_BACK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final ExecutorService executor;
+    private final boolean prioritized;
+    private final AtomicLong sequence = new AtomicLong(); // Breaks ties between tasks of the same rank
+    private final AtomicLong[] costServiceTimeNanos = new AtomicLong[QueryCost.values().length]; // Moving average per cost
+    private final AtomicLong[] costComputeTimeNanos = new AtomicLong[QueryCost.values().length]; // Moving average per cost
+    private final AtomicLong computeTimeNanos = new AtomicLong(); // Moving average, 0 until a compute time was recorded
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong serviceTimeNanos = new AtomicLong(); // Moving average, 0 until a task has run
+    private final AtomicLong queueTimeNanos = new AtomicLong(); // Moving average, 0 until a task has started
+    private final LongAdder rejected = new LongAdder();
+    private final int queueLimit;
+    private final int workers;
+
+    /**
+     * Creates an executor in the given mode.
+     *
+     * @param mode "pool" or "virtual"
+     * @param workers the number of worker threads in pool mode
+     * @param queueLimit the number of waiting tasks from which tryExecute rejects tasks
+     * @param prioritized whether the pool runs cheap tasks first instead of in submit order
+     */
+    public TaskExecutor(String mode, int workers, int queueLimit, boolean prioritized) {
+        ExecutorService virtual = "virtual".equals(mode) ? newVirtualThreadExecutor() : null;
+        this.executor = virtual != null ? virtual : new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), workerThreadFactory());
+        this.queueLimit = queueLimit;
+        this.workers = workers;
+        this.prioritized = prioritized;
+        for (int i = 0; i < costServiceTimeNanos.length; i++) {
+            costServiceTimeNanos[i] = new AtomicLong();
+            costComputeTimeNanos[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * Creates an executor configured from the server.executor, server.workers, server.queueLimit and
+     * server.scheduler system properties.
+     */
+    public static TaskExecutor fromSystemProperties() {
+        String mode = System.getProperty("server.executor", "pool");
+        int workers = Integer.getInteger("server.workers", Runtime.getRuntime().availableProcessors());
+        int queueLimit = Integer.getInteger("server.queueLimit", 128);
+        boolean prioritized = !"fifo".equals(System.getProperty("server.scheduler", "priority"));
+        return new TaskExecutor(mode, Math.max(1, workers), Math.max(1, queueLimit), prioritized);
+    }
+
+    /**
+     * Submits a task for asynchronous execution if the queue has room and the task is expected to
+     * complete before its deadline: the expected queue time plus the average service time.
+     *
+     * @param task the task to run
+     * @param cost the expected cost of the task
+     * @param deadline the System.nanoTime() by which the task has to complete, Long.MAX_VALUE for none
+     * @return true if the task was submitted, false if it was rejected
+     */
+    public boolean tryExecute(Runnable task, QueryCost cost, long deadline) {
+        int waiting;
+        do {
+            waiting = queued.get();
+            long serviceTime = serviceTimeNanos.get();
+            long expectedQueueTime = Math.min(queueTimeNanos.get(), waiting * serviceTime / workers);
+            boolean late = deadline != Long.MAX_VALUE && deadline - System.nanoTime() < expectedQueueTime + serviceTime;
+            if (waiting >= queueLimit || late) {
+                rejected.increment();
+                return false;
+            }
+        } while (!queued.compareAndSet(waiting, waiting + 1));
+        submit(task, cost);
+        return true;
+    }
+
+    /*
+     * Runs the task, which has already been counted as queued, on the executor.
+     */
+    private void submit(Runnable task, QueryCost cost) {
+        long submitTime = System.nanoTime();
+        long rank = prioritized ? submitTime + Math.min(AGING_WEIGHT * getComputeTimeNanos(cost), MAX_HOLD_BACK_NANOS) : submitTime;
+        executor.execute(new RankedTask(rank, sequence.getAndIncrement(), () -> {
+            queued.decrementAndGet();
+            running.incrementAndGet();
+            long startTime = System.nanoTime();
+            recordQueueTime(startTime - submitTime);
+            try {
+                task.run();
+            } finally {
+                running.decrementAndGet();
+                recordServiceTime(cost, System.nanoTime() - startTime);
+            }
+        }));
+    }
+
+    /**
+     * Returns the number of tasks waiting to be started.
+     */
+    public int getQueueSize() {
+        return queued.get();
+    }
+
+    /**
+     * Returns the number of tasks being executed.
+     */
+    public int getInFlight() {
+        return running.get();
+    }
+
+    /**
+     * Returns the exponentially weighted moving average of the task execution time in nanoseconds,
+     * where every task has a weight of 1/8, or 0 if no task has run yet.
+     */
+    public long getServiceTimeNanos() {
+        return serviceTimeNanos.get();
+    }
+
+    /**
+     * Returns the moving average of the execution time of the tasks of the given cost in nanoseconds,
+     * or the average over all tasks if no task of that cost has run yet.
+     *
+     * @param cost the expected cost of the tasks
+     */
+    public long getServiceTimeNanos(QueryCost cost) {
+        long serviceTime = costServiceTimeNanos[cost.ordinal()].get();
+        return serviceTime == 0 ? serviceTimeNanos.get() : serviceTime;
+    }
+
+    /**
+     * Returns the moving average of the compute time of the tasks of the given cost in nanoseconds, or
+     * the average over all tasks if none of that cost has been recorded yet, see recordComputeTime.
+     *
+     * @param cost the expected cost of the tasks
+     */
+    public long getComputeTimeNanos(QueryCost cost) {
+        long computeTime = costComputeTimeNanos[cost.ordinal()].get();
+        return computeTime == 0 ? computeTimeNanos.get() : computeTime;
+    }
+
+    /**
+     * Records the time a task of the given cost spent on its actual work, without simulated delays.
+     * The scheduler ranks the waiting tasks by these times.
+     *
+     * @param cost the expected cost of the task
+     * @param nanos the compute time in nanoseconds
+     */
+    public void recordComputeTime(QueryCost cost, long nanos) {
+        computeTimeNanos.updateAndGet(average -> average == 0 ? nanos : average + ((nanos - average) >> 3));
+        costComputeTimeNanos[cost.ordinal()].updateAndGet(average -> average == 0 ? nanos : average + ((nanos - average) >> 3));
+    }
+
+    /**
+     * Returns the exponentially weighted moving average of the time tasks waited in the queue before
+     * they started in nanoseconds, where every task has a weight of 1/8, or 0 if no task has started yet.
+     */
+    public long getQueueTimeNanos() {
+        return queueTimeNanos.get();
+    }
+
+    /**
+     * Returns the number of tasks tryExecute has rejected since the executor was created.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Returns the number of waiting tasks from which tryExecute rejects tasks.
+     */
+    public int getQueueLimit() {
+        return queueLimit;
+    }
+
+    /**
+     * Stops accepting tasks. Tasks already submitted are still run.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Returns Executors.newVirtualThreadPerTaskExecutor(), which only exists from Java 21,
+     * or null on older runtimes.
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Virtual threads are not available, using a thread pool");
+            return null;
+        }
+    }
+
+    private void recordServiceTime(QueryCost cost, long nanos) {
+        serviceTimeNanos.updateAndGet(average -> average == 0 ? nanos : average + ((nanos - average) >> 3));
+        costServiceTimeNanos[cost.ordinal()].updateAndGet(average -> average == 0 ? nanos : average + ((nanos - average) >> 3));
+    }
+
+    private void recordQueueTime(long nanos) {
+        queueTimeNanos.updateAndGet(average -> average + ((nanos - average) >> 3));
+    }
+
+    /*
+     * A task in the queue of the pool, ordered by rank and then by submit order.
+     */
+    private record RankedTask(long rank, long sequence, Runnable task) implements Runnable, Comparable<RankedTask> {
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(RankedTask other) {
+            int byRank = Long.compare(rank, other.rank);
+            return byRank != 0 ? byRank : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static ThreadFactory workerThreadFactory() {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        return task -> {
+            Thread thread = new Thread(task, "server-worker-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
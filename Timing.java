@@ -0,0 +1,62 @@
+/**
+ * Timing
+ * Layout of the long[] a server returns for a query, and helpers for the nanosecond times in it.
+ * All times are measured with System.nanoTime() and given in nanoseconds.
+ */
+public final class Timing {
+
+    /** The result of the query. */
+    public static final int RESULT = 0;
+    /** Time from the start of the task until the result was ready, including simulated latency. */
+    public static final int EXECUTION = 1;
+    /** Time the task waited in the queue before it was started. */
+    public static final int WAITING = 2;
+    /** Time spent looking up the result in the server cache. */
+    public static final int CACHE_PROBE = 3;
+    /** Time spent computing the result from the data set and storing it in the cache. */
+    public static final int COMPUTE = 4;
+    /**
+     * Time from the result being ready until the remote method of the caller picked it up and returned
+     * it, i.e. the wake up of the waiting RMI thread. This is not a serialization time: serialization
+     * is not measured separately, see rmiOverhead.
+     */
+    public static final int HAND_OFF = 5;
+    /** The length of a result array. */
+    public static final int LENGTH = 6;
+
+    private Timing() {}
+
+    /**
+     * Returns a result array holding only the given result, with all times 0.
+     */
+    public static long[] of(long result) {
+        long[] timing = new long[LENGTH];
+        timing[RESULT] = result;
+        return timing;
+    }
+
+    /**
+     * Returns the part of the turnaround time that was not spent on the server: the RMI calls,
+     * marshalling, the network and the simulated latency between zones. Never negative. RMI serializes
+     * the arguments and the reply outside the server methods, so the serialization time is contained in
+     * this overhead but is not measured separately and cannot be told apart from the rest of it.
+     *
+     * @param turnAroundTime the turnaround time measured by the client
+     * @param timing the result array returned by the server
+     */
+    public static long rmiOverhead(long turnAroundTime, long[] timing) {
+        long serverTime = timing[WAITING] + timing[EXECUTION] + timing[HAND_OFF];
+        return Math.max(0, turnAroundTime - serverTime);
+    }
+
+    /**
+     * Formats nanoseconds as milliseconds with three decimals, e.g. 80.125.
+     */
+    public static String toMillis(long nanos) {
+        long micros = Math.round(nanos / 1000.0);
+        long millis = micros / 1000;
+        long fraction = Math.abs(micros % 1000);
+        String sign = micros < 0 && millis == 0 ? "-" : "";
+        return sign + millis + "." + (fraction < 10 ? "00" : fraction < 100 ? "0" : "") + fraction;
+    }
+}
@@ -0,0 +1,36 @@
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * ZoneAffinityStrategy
+ * Sends a query to the server of the client's zone while its load is below the threshold. Otherwise
+ * the less loaded of the next two servers in zone order is used, unless both are at the threshold too.
+ * Ties between the two neighbours are broken at random.
+ */
+public class ZoneAffinityStrategy implements BalancingStrategy {
+
+    private final int threshold;
+
+    /**
+     * Creates the strategy.
+     *
+     * @param threshold the load from which a server is considered busy
+     */
+    public ZoneAffinityStrategy(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public ServerNode select(int requestedZone, List<ServerNode> servers) {
+        ServerNode zoneServer = servers.get(requestedZone - 1);
+        ServerNode neighbor = servers.get(requestedZone % servers.size());
+        ServerNode neighbor2 = servers.get((requestedZone + 1) % servers.size());
+        int neighborLoad = neighbor.getLoad();
+        int neighbor2Load = neighbor2.getLoad();
+
+        if (zoneServer.getLoad() < threshold || (neighborLoad >= threshold && neighbor2Load >= threshold)) return zoneServer;
+        int comparison = Integer.compare(neighborLoad, neighbor2Load);
+        if (comparison == 0) return ThreadLocalRandom.current().nextBoolean() ? neighbor : neighbor2;
+        return comparison < 0 ? neighbor : neighbor2;
+    }
+}
@@ -0,0 +1,78 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+/**
+ * DataSetGenerator
+ * Writes synthetic data sets in the format of exercise_1_dataset.csv: a header line followed by one
+ * semicolon separated line per city, with the country name in the fourth and the population in the
+ * fifth column. The cities are spread over COUNTRY_COUNT countries and the populations are log-uniform
+ * between 1 and 10 million, so small and large thresholds both select a useful number of cities.
+ * The same number of rows always gives the same file.
+ */
+public final class DataSetGenerator {
+
+    /** The number of countries in a generated data set. */
+    public static final int COUNTRY_COUNT = 200;
+
+    private static final long SEED = 5020;
+    private static final double MAX_POPULATION_LOG = Math.log(10_000_000);
+
+    private DataSetGenerator() {}
+
+    /**
+     * Returns the name of the country with the given number, e.g. "Country 007".
+     */
+    public static String countryName(int country) {
+        return String.format("Country %03d", country);
+    }
+
+    /**
+     * Returns a generated data set with the given number of rows in the temporary directory,
+     * writing it first if it does not exist yet.
+     *
+     * @param rows the number of cities
+     * @return the path of the data set file
+     * @throws IOException if the file cannot be written
+     */
+    public static Path generate(int rows) throws IOException {
+        Path file = Path.of(System.getProperty("java.io.tmpdir"), "statistics-dataset-" + rows + ".csv");
+        if (Files.exists(file)) return file;
+        Path partial = Files.createTempFile(file.getParent(), "statistics-dataset-" + rows, ".partial");
+        write(partial, rows);
+        Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE);
+        return file;
+    }
+
+    /**
+     * Writes a data set with the given number of rows to the file.
+     *
+     * @param file the file to write
+     * @param rows the number of cities
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path file, int rows) throws IOException {
+        Random random = new Random(SEED);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("Geoname ID;Name;Country Code;Country name EN;Population\n");
+            for (int i = 0; i < rows; i++) {
+                int country = random.nextInt(COUNTRY_COUNT);
+                int population = (int) Math.exp(random.nextDouble() * MAX_POPULATION_LOG);
+                writer.write(i + ";City " + i + ";C" + country + ";" + countryName(country) + ";" + population + "\n");
+            }
+        }
+    }
+
+    /**
+     * Writes a data set, e.g. java -cp benchmarks.jar benchmarks.DataSetGenerator 100000 dataset.csv
+     */
+    public static void main(String[] args) throws IOException {
+        write(Path.of(args[1]), Integer.parseInt(args[0]));
+    }
+}
@@ -0,0 +1,61 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * LoadBalancerHandle
+ * Calls the LoadBalancer behind ProxyServer.getServer directly, without RMI. The service classes are
+ * in the unnamed package, so, as in ServerHandle, the methods are bound once through method handles.
+ */
+final class LoadBalancerHandle {
+
+    private static final MethodHandle NEW_LOAD_BALANCER;
+    private static final MethodHandle GET_SERVER;
+    private static final MethodHandle NEW_LOAD_REPORT;
+    private static final MethodHandle REPORT;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> loadBalancer = Class.forName("LoadBalancer");
+            Class<?> loadReport = Class.forName("LoadReport");
+            NEW_LOAD_BALANCER = lookup.findStatic(loadBalancer, "fromSystemProperties", MethodType.methodType(loadBalancer, int.class))
+                    .asType(MethodType.methodType(Object.class, int.class));
+            GET_SERVER = lookup.findVirtual(loadBalancer, "getServer", MethodType.methodType(String.class, int.class, int.class))
+                    .asType(MethodType.methodType(String.class, Object.class, int.class, int.class));
+            NEW_LOAD_REPORT = lookup.findConstructor(loadReport,
+                    MethodType.methodType(void.class, String.class, int.class, int.class, long.class, double.class, boolean.class))
+                    .asType(MethodType.methodType(Object.class, String.class, int.class, int.class, long.class, double.class, boolean.class));
+            REPORT = lookup.findVirtual(loadBalancer, "report", MethodType.methodType(void.class, loadReport))
+                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Object loadBalancer;
+
+    /**
+     * Creates a balancer with the strategy given by the proxy.strategy system property.
+     */
+    LoadBalancerHandle(int serverCount) throws Throwable {
+        loadBalancer = (Object) NEW_LOAD_BALANCER.invokeExact(serverCount);
+    }
+
+    String getServer(int requestedZone, int keyHash) throws Throwable {
+        return (String) GET_SERVER.invokeExact(loadBalancer, requestedZone, keyHash);
+    }
+
+    /**
+     * Creates a load report of a server, to be passed to report.
+     */
+    static Object newLoadReport(String serverName, int queueSize) throws Throwable {
+        return (Object) NEW_LOAD_REPORT.invokeExact(serverName, queueSize, 0, 0L, 0.0, false);
+    }
+
+    void report(Object loadReport) throws Throwable {
+        REPORT.invokeExact(loadBalancer, loadReport);
+    }
+}
@@ -0,0 +1,103 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ProxyBenchmark
+ * Measures the throughput of the server selection behind ProxyServer.getServer for each balancing
+ * strategy, with 1, 2, 4 and 8 threads calling it at once, as concurrent RMI threads do. With lock-free
+ * node state the total throughput grows with the number of threads instead of collapsing on a lock.
+ *
+ * Every thread cycles through the five zones and a set of KEYS routing hashes, and calls getServer with
+ * the routing hash as the clients do, so the hash strategy walks its ring. Every REPORT_EVERY calls a
+ * thread also delivers a load report for one server, as the pushed heartbeats do, so the assignment
+ * counters are reset regularly.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar ProxyBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyBenchmark {
+
+    private static final int SERVER_COUNT = 5;
+    private static final int REPORT_EVERY = 1024;
+    private static final int KEYS = 1000;
+
+    @Param({"zone", "p2c", "least", "hash"})
+    public String strategy;
+
+    private LoadBalancerHandle loadBalancer;
+    private final Object[] reports = new Object[SERVER_COUNT];
+
+    /*
+     * The next zone and the calls until the next report of a benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Caller {
+        private int zone;
+        private int key;
+        private int calls;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        System.setProperty("proxy.strategy", strategy);
+        loadBalancer = new LoadBalancerHandle(SERVER_COUNT);
+        for (int i = 0; i < SERVER_COUNT; i++) {
+            reports[i] = LoadBalancerHandle.newLoadReport("server" + (i + 1), 4 * i);
+            loadBalancer.report(reports[i]);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String getServer1Thread(Caller caller) throws Throwable {
+        return getServer(caller);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public String getServer2Threads(Caller caller) throws Throwable {
+        return getServer(caller);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String getServer4Threads(Caller caller) throws Throwable {
+        return getServer(caller);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String getServer8Threads(Caller caller) throws Throwable {
+        return getServer(caller);
+    }
+
+    private String getServer(Caller caller) throws Throwable {
+        caller.zone = caller.zone == SERVER_COUNT ? 1 : caller.zone + 1;
+        if (++caller.calls == REPORT_EVERY) {
+            caller.calls = 0;
+            loadBalancer.report(reports[caller.zone - 1]);
+        }
+        caller.key = caller.key == KEYS - 1 ? 0 : caller.key + 1;
+        return loadBalancer.getServer(caller.zone, caller.key * 0x9E3779B9);
+    }
+}
@@ -0,0 +1,117 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ServerBenchmark
+ * Measures the query methods of a Server called directly, without RMI, over generated data sets of
+ * 10k, 100k and 1M cities. The simulated latency is switched off, so the times are those of the task
+ * executor, the cache and the indexes.
+ *
+ * In the cold case the server cache is disabled and every query is computed. In the warm case the
+ * cache holds every query of the benchmark, and the queries are run once before the measurement.
+ * getNumberofCities and the two argument getNumberofCountries are answered from the indexes and never
+ * cached, so for them both cases measure the same path.
+ *
+ * Run with: mvn -B package and java -jar benchmarks/target/benchmarks.jar
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerBenchmark {
+
+    private static final int QUERY_COUNT = 64; // Distinct queries per method
+    private static final int WARM_CACHE_SIZE = 1024; // Holds every query of the benchmark
+    private static final int[] THRESHOLDS = {1_000, 10_000, 100_000, 1_000_000};
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"cold", "warm"})
+    public String cache;
+
+    private ServerHandle server;
+    private final String[] countryNames = new String[QUERY_COUNT];
+    private final int[] citycounts = new int[QUERY_COUNT];
+    private final int[] minpopulations = new int[QUERY_COUNT];
+    private final int[] maxpopulations = new int[QUERY_COUNT];
+
+    /*
+     * The position of a benchmark thread in the query arrays.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        int next() {
+            next = (next + 1) & (QUERY_COUNT - 1);
+            return next;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        System.setProperty("latency.mode", "none");
+        System.setProperty("server.cacheSize", "warm".equals(cache) ? Integer.toString(WARM_CACHE_SIZE) : "0");
+        server = new ServerHandle(DataSetGenerator.generate(rows).toString());
+
+        Random random = new Random(QUERY_COUNT);
+        int citiesPerCountry = rows / DataSetGenerator.COUNTRY_COUNT;
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            countryNames[i] = DataSetGenerator.countryName(random.nextInt(DataSetGenerator.COUNTRY_COUNT));
+            citycounts[i] = 1 + random.nextInt(citiesPerCountry);
+            minpopulations[i] = THRESHOLDS[random.nextInt(THRESHOLDS.length)];
+            maxpopulations[i] = minpopulations[i] * 100;
+        }
+
+        if ("warm".equals(cache)) {
+            for (int i = 0; i < QUERY_COUNT; i++) {
+                server.getPopulationofCountry(countryNames[i]);
+                server.getNumberofCities(countryNames[i], minpopulations[i]);
+                server.getNumberofCountries(citycounts[i], minpopulations[i]);
+                server.getNumberofCountries(citycounts[i], minpopulations[i], maxpopulations[i]);
+            }
+        }
+    }
+
+    @Benchmark
+    public long[] getPopulationofCountry(Cursor cursor) throws Throwable {
+        int i = cursor.next();
+        return server.getPopulationofCountry(countryNames[i]);
+    }
+
+    @Benchmark
+    public long[] getNumberofCities(Cursor cursor) throws Throwable {
+        int i = cursor.next();
+        return server.getNumberofCities(countryNames[i], minpopulations[i]);
+    }
+
+    @Benchmark
+    public long[] getNumberofCountries(Cursor cursor) throws Throwable {
+        int i = cursor.next();
+        return server.getNumberofCountries(citycounts[i], minpopulations[i]);
+    }
+
+    @Benchmark
+    public long[] getNumberofCountriesMax(Cursor cursor) throws Throwable {
+        int i = cursor.next();
+        return server.getNumberofCountries(citycounts[i], minpopulations[i], maxpopulations[i]);
+    }
+}
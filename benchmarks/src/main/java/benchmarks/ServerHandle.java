@@ -0,0 +1,71 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * ServerHandle
+ * Calls the query methods of a Server directly, without RMI. JMH needs the benchmarks to be in a
+ * named package, and classes in a named package cannot refer to the service classes in the unnamed
+ * package, so the methods are bound once through method handles. An exact invoke of a constant
+ * handle costs a few nanoseconds, far below the time of a query.
+ */
+final class ServerHandle {
+
+    private static final MethodHandle NEW_SERVER;
+    private static final MethodHandle POPULATION_OF_COUNTRY;
+    private static final MethodHandle NUMBER_OF_CITIES;
+    private static final MethodHandle NUMBER_OF_COUNTRIES;
+    private static final MethodHandle NUMBER_OF_COUNTRIES_IN_RANGE;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> server = Class.forName("Server");
+            MethodType query = MethodType.methodType(long[].class, Object.class);
+            NEW_SERVER = lookup.findConstructor(server, MethodType.methodType(void.class, String.class))
+                    .asType(MethodType.methodType(Object.class, String.class));
+            POPULATION_OF_COUNTRY = lookup.findVirtual(server, "getPopulationofCountry",
+                    MethodType.methodType(long[].class, String.class, long.class)).asType(query.appendParameterTypes(String.class, long.class));
+            NUMBER_OF_CITIES = lookup.findVirtual(server, "getNumberofCities",
+                    MethodType.methodType(long[].class, String.class, int.class, long.class))
+                    .asType(query.appendParameterTypes(String.class, int.class, long.class));
+            NUMBER_OF_COUNTRIES = lookup.findVirtual(server, "getNumberofCountries",
+                    MethodType.methodType(long[].class, int.class, int.class, long.class))
+                    .asType(query.appendParameterTypes(int.class, int.class, long.class));
+            NUMBER_OF_COUNTRIES_IN_RANGE = lookup.findVirtual(server, "getNumberofCountries",
+                    MethodType.methodType(long[].class, int.class, int.class, int.class, long.class))
+                    .asType(query.appendParameterTypes(int.class, int.class, int.class, long.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Object server;
+
+    /**
+     * Creates a server over the given data set file. The server reads its configuration, e.g.
+     * server.cacheSize and latency.mode, from the system properties when it is created. The queries
+     * are sent without a deadline, so the server never sheds them.
+     */
+    ServerHandle(String dataSetFile) throws Throwable {
+        server = (Object) NEW_SERVER.invokeExact(dataSetFile);
+    }
+
+    long[] getPopulationofCountry(String countryName) throws Throwable {
+        return (long[]) POPULATION_OF_COUNTRY.invokeExact(server, countryName, 0L);
+    }
+
+    long[] getNumberofCities(String countryName, int min) throws Throwable {
+        return (long[]) NUMBER_OF_CITIES.invokeExact(server, countryName, min, 0L);
+    }
+
+    long[] getNumberofCountries(int citycount, int minpopulation) throws Throwable {
+        return (long[]) NUMBER_OF_COUNTRIES.invokeExact(server, citycount, minpopulation, 0L);
+    }
+
+    long[] getNumberofCountries(int citycount, int minpopulation, int maxpopulation) throws Throwable {
+        return (long[]) NUMBER_OF_COUNTRIES_IN_RANGE.invokeExact(server, citycount, minpopulation, maxpopulation, 0L);
+    }
+}